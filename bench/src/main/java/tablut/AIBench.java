@@ -0,0 +1,77 @@
+package tablut;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of the AI's evaluation and of fixed-depth searches over the
+ *  midgame corpus.
+ *  @author Young Hoon Kang
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AIBench {
+
+    /** The depth of the findMove searches. */
+    @Param({ "3", "4" })
+    public int depth;
+
+    /** Load the corpus and set up an AI whose searches run to completion
+     *  on a single thread. */
+    @Setup
+    public void setUp() {
+        _boards = Positions.midgame().toArray(new Board[0]);
+        _ai = new AI(Piece.BLACK, null);
+        _ai.table();
+        _ai._deadline = Long.MAX_VALUE;
+    }
+
+    /** Return the next position of the corpus. */
+    private Board nextBoard() {
+        _next = (_next + 1) % _boards.length;
+        return _boards[_next];
+    }
+
+    /** Evaluate the next position statically. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int staticScore() {
+        return _ai.staticScore(nextBoard());
+    }
+
+    /** Search the next position to a fixed depth from an empty
+     *  transposition table, for the side to move. */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int findMove() {
+        Board board = nextBoard();
+        _ai.table().clear();
+        _ai.startOrdering(board);
+        _ai._searchDepth = depth;
+        _ai._nodes = 0;
+        return _ai.findMove(board, depth, true,
+                            board.turn() == Piece.WHITE ? 1 : -1,
+                            -AI.INFTY, AI.INFTY);
+    }
+
+    /** The corpus. */
+    private Board[] _boards;
+    /** The index of the last position used. */
+    private int _next;
+    /** The searcher. */
+    private AI _ai;
+}
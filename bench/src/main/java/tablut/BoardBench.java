@@ -0,0 +1,166 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Benchmarks of the Board operations used by the search.  Each
+ *  invocation works on the next position of the midgame corpus (and the
+ *  next of its moves, where there is one), cycling through them.
+ *  @author Young Hoon Kang
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBench {
+
+    /** Load the corpus and list every legal move in it, along with as
+     *  many random (mostly illegal) moves. */
+    @Setup
+    public void setUp() {
+        _boards = Positions.midgame().toArray(new Board[0]);
+        List<Integer> owners = new ArrayList<>();
+        List<Move> moves = new ArrayList<>();
+        Random random = new Random(1);
+        for (int b = 0; b < _boards.length; b += 1) {
+            for (Move move : _boards[b].legalMoves(_boards[b].turn())) {
+                owners.add(b);
+                moves.add(move);
+                owners.add(b);
+                moves.add(Move.mv(random.nextInt(Move.NUM_MOVES)));
+            }
+        }
+        _owners = new int[owners.size()];
+        _moves = new Move[moves.size()];
+        _codes = new int[moves.size()];
+        for (int k = 0; k < _moves.length; k += 1) {
+            _owners[k] = owners.get(k);
+            _moves[k] = moves.get(k);
+            _codes[k] = _moves[k].code();
+        }
+        _repeating = new Board();
+        while (_repeating.moveCount() < REVERSIBLE_PLIES) {
+            _repeatingMove = quietMove(_repeating, random);
+            _repeating.makeMove(_repeatingMove);
+        }
+        _repeatingMove = quietMove(_repeating, random);
+    }
+
+    /** Return a random legal move in BOARD that neither captures nor ends
+     *  the game, using RANDOM. */
+    private static Move quietMove(Board board, Random random) {
+        List<Move> moves = board.legalMoves(board.turn());
+        while (true) {
+            Move move = moves.get(random.nextInt(moves.size()));
+            if (!board.isCapture(move)) {
+                board.makeMove(move);
+                boolean over = board.winner() != null;
+                board.undo();
+                if (!over) {
+                    return move;
+                }
+            }
+        }
+    }
+
+    /** Return the next position of the corpus. */
+    private Board nextBoard() {
+        _next = (_next + 1) % _boards.length;
+        return _boards[_next];
+    }
+
+    /** Make and undo the next legal move of the corpus. */
+    @Benchmark
+    public long makeUndo() {
+        _nextMove = (_nextMove + 2) % _moves.length;
+        Board board = _boards[_owners[_nextMove]];
+        board.makeMove(_codes[_nextMove]);
+        long key = board.hashKey();
+        board.undo();
+        return key;
+    }
+
+    /** Generate the legal moves of the side to move as a List. */
+    @Benchmark
+    public List<Move> legalMoves() {
+        Board board = nextBoard();
+        return board.legalMoves(board.turn());
+    }
+
+    /** Generate the legal moves of the side to move into an int
+     *  buffer. */
+    @Benchmark
+    public int legalMovesIntoBuffer() {
+        Board board = nextBoard();
+        return board.legalMoves(board.turn(), _buffer, 0);
+    }
+
+    /** Check the next move of the corpus for legality (half of the moves
+     *  are random and mostly illegal). */
+    @Benchmark
+    public boolean isLegal() {
+        _nextMove = (_nextMove + 1) % _moves.length;
+        return _boards[_owners[_nextMove]].isLegal(_moves[_nextMove]);
+    }
+
+    /** Encode the next position as a String. */
+    @Benchmark
+    public String encodedBoard() {
+        return nextBoard().encodedBoard();
+    }
+
+    /** Make and undo a move after a long run of moves without a capture,
+     *  all of whose positions the repetition check must look at. */
+    @Benchmark
+    public boolean repetitionCheck() {
+        _repeating.makeMove(_repeatingMove);
+        boolean result = _repeating.repeatedPosition();
+        _repeating.undo();
+        return result;
+    }
+
+    /** Copy the next position. */
+    @Benchmark
+    public void copy(Blackhole hole) {
+        hole.consume(new Board(nextBoard()));
+    }
+
+    /** The number of moves without a capture played before
+     *  repetitionCheck. */
+    private static final int REVERSIBLE_PLIES = 60;
+
+    /** The corpus. */
+    private Board[] _boards;
+    /** The index of the last position used. */
+    private int _next;
+    /** _moves[k] is a move in position _boards[_owners[k]] (legal for even
+     *  k), and _codes[k] is its code. */
+    private int[] _owners, _codes;
+    /** See _owners. */
+    private Move[] _moves;
+    /** The index of the last move used. */
+    private int _nextMove;
+    /** A buffer for generated moves. */
+    private final int[] _buffer = new int[Board.MAX_MOVES];
+    /** A position reached by REVERSIBLE_PLIES moves without a capture. */
+    private Board _repeating;
+    /** A legal move in _repeating that neither captures nor ends the
+     *  game. */
+    private Move _repeatingMove;
+}
@@ -0,0 +1,42 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/** A fixed corpus of midgame positions for the benchmarks.
+ *  @author Young Hoon Kang
+ */
+final class Positions {
+
+    /** The number of positions in the corpus. */
+    static final int SIZE = 32;
+
+    /** The seed from which the corpus is generated. */
+    private static final long SEED = 0x5EED;
+
+    /** Not instantiable. */
+    private Positions() {
+    }
+
+    /** Return the corpus: SIZE positions reached by playing 16 to 40
+     *  random legal moves from the initial position, in none of which
+     *  the game is over.  The same positions are returned on every
+     *  call. */
+    static List<Board> midgame() {
+        Random random = new Random(SEED);
+        List<Board> result = new ArrayList<>();
+        while (result.size() < SIZE) {
+            Board board = new Board();
+            int plies = 16 + random.nextInt(25);
+            while (board.winner() == null && board.moveCount() < plies) {
+                List<Move> moves = board.legalMoves(board.turn());
+                board.makeMove(moves.get(random.nextInt(moves.size())));
+            }
+            if (board.winner() == null) {
+                result.add(board);
+            }
+        }
+        return result;
+    }
+}
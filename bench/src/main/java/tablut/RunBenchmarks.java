@@ -0,0 +1,35 @@
+package tablut;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the benchmarks selected by the standard JMH command-line
+ *  arguments, writing the results as JSON (to jmh-result.json) unless
+ *  the arguments choose another format or file.
+ *  @author Young Hoon Kang
+ */
+public class RunBenchmarks {
+
+    /** The default file for the results. */
+    private static final String RESULT_FILE = "jmh-result.json";
+
+    /** Run the benchmarks as directed by the JMH options in ARGS. */
+    public static void main(String... args)
+        throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options =
+            new OptionsBuilder().parent(cmdLine);
+        if (!cmdLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!cmdLine.getResult().hasValue()) {
+            options.result(RESULT_FILE);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -1,10 +1,17 @@
 package tablut;
 
-import java.util.List;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.lang.Math.*;
 
 import static tablut.Piece.*;
+import static tablut.Utils.*;
 
 /** A Player that automatically generates moves.
  *  @author Young Hoon Kang
@@ -13,12 +20,63 @@ class AI extends Player {
 
     /** A position-score magnitude indicating a win (for white if positive,
      *  black if negative). */
-    private static final int WINNING_VALUE = Integer.MAX_VALUE - 20;
+    static final int WINNING_VALUE = Integer.MAX_VALUE - 20;
     /** A position-score magnitude indicating a forced win in a subsequent
      *  move.  This differs from WINNING_VALUE to avoid putting off wins. */
-    private static final int WILL_WIN_VALUE = Integer.MAX_VALUE - 40;
+    static final int WILL_WIN_VALUE = Integer.MAX_VALUE - 40;
+    /** The magnitude of the value of a position that the tablebase shows
+     *  to be won, less the number of plies to the win from the root. */
+    static final int TABLEBASE_WIN_VALUE = WILL_WIN_VALUE - 1;
     /** A magnitude greater than a normal value. */
-    private static final int INFTY = Integer.MAX_VALUE;
+    static final int INFTY = Integer.MAX_VALUE;
+    /** The deepest search attempted. */
+    private static final int MAX_DEPTH = 64;
+    /** Move time in milliseconds used when no limit has been set, and the
+     *  least time to spend on any move. */
+    private static final long DEFAULT_MOVE_TIME = 1000, MIN_MOVE_TIME = 10;
+    /** The number of moves still to be made assumed when dividing up the
+     *  remaining clock time. */
+    private static final int MOVES_TO_GO = 30;
+    /** The search checks the time once per CLOCK_CHECK_MASK + 1 nodes. */
+    private static final int CLOCK_CHECK_MASK = 1023;
+    /** Default and maximum transposition-table sizes, in megabytes. */
+    private static final int DEFAULT_HASH_MEGABYTES = 16,
+        MAX_HASH_MEGABYTES = 4096;
+    /** The largest number of plies from the root that the move buffers
+     *  and move-ordering tables distinguish. */
+    private static final int MAX_PLY = 128;
+    /** Move-ordering scores of the hash move, captures, the first killer
+     *  move, and the counter move.  History scores are smaller. */
+    private static final int HASH_MOVE_SCORE = 1 << 30,
+        CAPTURE_SCORE = 1 << 29, KILLER_SCORE = 1 << 28,
+        COUNTER_MOVE_SCORE = 1 << 27;
+    /** The largest history score. */
+    private static final int MAX_HISTORY_SCORE = (1 << 27) - 1;
+    /** Scores of at least this magnitude show a forced result, and are not
+     *  trusted to null-move searches. */
+    private static final int DECISIVE_VALUE = WILL_WIN_VALUE / 2;
+    /** Aspiration windows start at 1/ASPIRATION_WINDOWS of the weights'
+     *  captureMargin() on each side of the expected value, and grow by a
+     *  factor of ASPIRATION_GROWTH each time the search fails. */
+    private static final int ASPIRATION_WINDOWS = 4, ASPIRATION_GROWTH = 4;
+    /** The least depth at which a null move is tried, the reduction in
+     *  depth of the search after it, and the depth from which that
+     *  reduction grows by one. */
+    private static final int NULL_MOVE_MIN_DEPTH = 3, NULL_MOVE_REDUCTION = 2,
+        NULL_MOVE_DEEP = 6;
+    /** Null moves are not tried when the king has at least
+     *  NULL_MOVE_MAX_ATTACKERS black pieces around it, or the side to
+     *  move has fewer than NULL_MOVE_MIN_MOBILITY moves: positions in
+     *  which having to move may hurt. */
+    private static final int NULL_MOVE_MAX_ATTACKERS = 2,
+        NULL_MOVE_MIN_MOBILITY = 12;
+    /** Late-move reductions apply from depth LMR_MIN_DEPTH to the moves
+     *  after the first LMR_FULL_MOVES, and are one ply larger after the
+     *  first LMR_LATE_MOVES. */
+    private static final int LMR_MIN_DEPTH = 3, LMR_FULL_MOVES = 3,
+        LMR_LATE_MOVES = 12;
+    /** The largest number of search threads. */
+    private static final int MAX_THREADS = 256;
 
     /** A new AI with no piece or controller (intended to produce
      *  a template). */
@@ -29,16 +87,129 @@ class AI extends Player {
     /** A new AI playing PIECE under control of CONTROLLER. */
     AI(Piece piece, Controller controller) {
         super(piece, controller);
+        _hashMegabytes = DEFAULT_HASH_MEGABYTES;
+        _threads = 1;
+        _weights = Weights.DEFAULT;
+        _quiescence = _nullMove = _lmr = _research = _pvs = _aspiration =
+            true;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        AI result = new AI(piece, controller);
+        result.copyOptions(this);
+        return result;
+    }
+
+    /** Set my options to those of MODEL. */
+    void copyOptions(AI model) {
+        _hashMegabytes = model._hashMegabytes;
+        _threads = model._threads;
+        _ponder = model._ponder;
+        copySearchOptions(model);
+    }
+
+    /** Set the options that shape my search (as opposed to the resources
+     *  it uses) to those of MODEL, whose searches I help. */
+    void copySearchOptions(AI model) {
+        _weights = model._weights;
+        _quiescence = model._quiescence;
+        _nullMove = model._nullMove;
+        _lmr = model._lmr;
+        _research = model._research;
+        _pvs = model._pvs;
+        _aspiration = model._aspiration;
+    }
+
+    /** Set my option NAME to VALUE.  The options are "hash" (megabytes
+     *  of transposition table), "threads" (search threads), "weights" (a
+     *  file of evaluation Weights), and the switches, on or off, of the
+     *  search's "quiescence" stage, "nullmove" pruning, late-move
+     *  reductions ("lmr"), the "research" of reduced moves that fail
+     *  high, principal variation search ("pvs"), "aspiration" windows,
+     *  and pondering on the opponent's time ("ponder"). */
+    @Override
+    void setOption(String name, String value) {
+        switch (name) {
+        case "hash":
+            _hashMegabytes = intOption(name, value, 1, MAX_HASH_MEGABYTES);
+            break;
+        case "threads":
+            _threads = intOption(name, value, 1, MAX_THREADS);
+            break;
+        case "weights":
+            try {
+                _weights = Weights.read(new File(value));
+            } catch (IOException excp) {
+                throw error("could not read weights: %s", excp.getMessage());
+            }
+            break;
+        case "quiescence":
+            _quiescence = boolOption(name, value);
+            break;
+        case "nullmove":
+            _nullMove = boolOption(name, value);
+            break;
+        case "lmr":
+            _lmr = boolOption(name, value);
+            break;
+        case "research":
+            _research = boolOption(name, value);
+            break;
+        case "pvs":
+            _pvs = boolOption(name, value);
+            break;
+        case "aspiration":
+            _aspiration = boolOption(name, value);
+            break;
+        case "ponder":
+            _ponder = boolOption(name, value);
+            break;
+        default:
+            throw error("unknown option: %s", name);
+        }
+    }
+
+    /** Return VALUE, the value given for option NAME, as a boolean: true
+     *  for "on" or "true" and false for "off" or "false". */
+    private static boolean boolOption(String name, String value) {
+        switch (value.toLowerCase()) {
+        case "on": case "true":
+            return true;
+        case "off": case "false":
+            return false;
+        default:
+            throw error("%s must be on or off", name);
+        }
+    }
+
+    /** Return VALUE, the value given for option NAME, as an integer,
+     *  checking that it is between LOW and HIGH. */
+    private static int intOption(String name, String value, int low,
+                                 int high) {
+        try {
+            int result = Integer.parseInt(value);
+            if (result >= low && result <= high) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("%s must be between %d and %d", name, low, high);
+    }
+
+    /** Return my transposition table, (re)creating it if my hash size
+     *  option has changed. */
+    TranspositionTable table() {
+        if (_table == null || _table.megabytes() != _hashMegabytes) {
+            _table = new TranspositionTable(_hashMegabytes);
+        }
+        return _table;
     }
 
     @Override
     String myMove() {
-        Move move = findMove();
+        Move move = findMove(board());
         _controller.reportMove(move);
         return move.toString();
     }
@@ -48,134 +219,883 @@ class AI extends Player {
         return false;
     }
 
-    /** Return a move for me from the current position, assuming there
-     *  is a move. */
-    private Move findMove() {
-        Board b = new Board(board());
-        _lastFoundMove = null;
-        if (_myPiece == WHITE || _myPiece == KING) {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
-        } else if (_myPiece == BLACK) {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
+    /** Return a move for me from POSITION, which is not modified,
+     *  assuming there is a move.  Plays a move from the Controller's
+     *  opening book, if it has one for the position, or the best move
+     *  according to the Controller's tablebase if it shows the position
+     *  to be won or lost.  Otherwise searches to depth 1, 2, 3, ... until
+     *  the time allotted by moveTime() runs out, and returns the move
+     *  chosen by the deepest search that finished.  If POSITION is the
+     *  one I last pondered (see startPondering), the search continues
+     *  from the pondering's results, counting its time as spent, and so
+     *  may return at once.  Reports the progress of the search after each
+     *  iteration, and ends it early, though never before the first
+     *  iteration finishes, if moveNow is called once this has begun. */
+    Move findMove(Board position) {
+        stopPondering();
+        _stopped = _stopRequested = false;
+        OpeningBook book = _controller.book();
+        if (book != null) {
+            Move move = book.choose(position, _controller::randInt);
+            if (move != null) {
+                return move;
+            }
+        }
+        _tablebase = _controller.tablebase();
+        if (_tablebase != null) {
+            Move move = tablebaseMove(position);
+            if (move != null) {
+                return move;
+            }
+        }
+        Board b = new Board(position);
+        table();
+        int sense = _myPiece == BLACK ? -1 : 1;
+        long budget = moveTime() * 1000000;
+        long start = System.nanoTime();
+        boolean hit = ponderHit(b);
+        if (hit) {
+            start -= _ponderTime;
+            _rootMoveCount = b.moveCount();
+        } else {
+            _bestMove = null;
+            _bestDepth = _bestScore = 0;
+            clearCounts();
+            startOrdering(b);
+        }
+        _ponderKey = 0;
+        _deadline = start + budget;
+        if (!hit || abs(_bestScore) < WINNING_VALUE
+            && 2 * (System.nanoTime() - start) <= budget) {
+            startHelpers(b);
+            deepen(b, sense, _bestDepth + 1, start, budget, true);
+            stopHelpers();
+        }
+        _controller.reportSearchInfo(
+            new SearchInfo(_myPiece, _bestMove, _bestDepth, _nodes,
+                           _leafEvals, _betaCutoffs, _firstMoveCutoffs,
+                           (System.nanoTime() - start) / 1000000));
+        return _bestMove;
+    }
+
+    /** Search BOARD for the side indicated by SENSE (as for findMove) by
+     *  iterative deepening from FIRSTDEPTH plies, recording the results of
+     *  each iteration that finishes in _bestMove, _bestDepth, and
+     *  _bestScore.  Stops when an iteration finds a forced result, when the
+     *  search is stopped or runs out of time, or when half of BUDGET
+     *  nanoseconds since START have passed, since the next iteration would
+     *  then probably not finish in time.  Iff REPORT, passes the statistics
+     *  of each finished iteration to the controller's reportProgress. */
+    private void deepen(Board board, int sense, int firstDepth, long start,
+                        long budget, boolean report) {
+        for (int depth = firstDepth; depth <= MAX_DEPTH; depth += 1) {
+            _searchDepth = depth;
+            int score = aspirationSearch(board, depth, sense, _bestScore);
+            if (_stopped) {
+                break;
+            }
+            _bestMove = _lastFoundMove;
+            _bestDepth = depth;
+            _bestScore = score;
+            if (report) {
+                _controller.reportProgress(
+                    new SearchInfo(_myPiece, _bestMove, _bestDepth, _nodes,
+                                   _leafEvals, _betaCutoffs,
+                                   _firstMoveCutoffs,
+                                   (System.nanoTime() - start) / 1000000));
+            }
+            if (abs(score) >= WINNING_VALUE
+                || 2 * (System.nanoTime() - start) > budget) {
+                break;
+            }
         }
-        return _lastFoundMove;
+    }
+
+    /** Stop the search in progress, if any: findMove then returns the
+     *  move of the deepest iteration it has finished.  The first
+     *  iteration always finishes, so a stop requested during it takes
+     *  effect only once it has. */
+    @Override
+    void moveNow() {
+        stop();
+    }
+
+    /** Start pondering POSITION, in which my opponent is to move, if my
+     *  ponder option is on: search it in the background until
+     *  stopPondering is called.  If my transposition table has a best move
+     *  for my opponent in POSITION, the background search is of the
+     *  position after that move (the expected reply), so that if my
+     *  opponent does play it, findMove can continue from the search's
+     *  results; otherwise it is of POSITION itself, for my opponent, which
+     *  at least fills the table with the values of my replies.  POSITION
+     *  is not modified, and may change once this method returns. */
+    @Override
+    void startPondering(Board position) {
+        stopPondering();
+        if (!_ponder || position.winner() != null
+            || position.turn() == _myPiece.side()) {
+            return;
+        }
+        Board b = new Board(position);
+        table();
+        _tablebase = _controller.tablebase();
+        _stopped = _stopRequested = false;
+        _ponderer = new Thread(() -> ponder(b), "tablut-ponder");
+        _ponderer.setDaemon(true);
+        _ponderer.start();
+    }
+
+    /** Stop pondering, if I am, and wait for the background search to
+     *  finish. */
+    @Override
+    void stopPondering() {
+        if (_ponderer == null) {
+            return;
+        }
+        stop();
+        try {
+            _ponderer.join();
+        } catch (InterruptedException excp) {
+            throw new IllegalStateException("interrupted while pondering");
+        }
+        _ponderer = null;
+    }
+
+    /** Search BOARD, in which my opponent is to move, in the background, as
+     *  described for startPondering, until stopped. */
+    private void ponder(Board board) {
+        long start = System.nanoTime();
+        _deadline = Long.MAX_VALUE;
+        _ponderKey = 0;
+        _bestMove = null;
+        _bestDepth = _bestScore = 0;
+        clearCounts();
+        int sense = _myPiece == BLACK ? -1 : 1;
+        long entry = _table.probe(board.hashKey());
+        Move reply = TranspositionTable.move(entry);
+        if (reply != null && board.isLegal(reply)) {
+            board.makeMove(reply);
+            if (board.winner() != null) {
+                return;
+            }
+            _ponderKey = board.hashKey();
+        } else {
+            sense = -sense;
+        }
+        startOrdering(board);
+        startHelpers(board);
+        deepen(board, sense, 1, start, Long.MAX_VALUE, false);
+        stopHelpers();
+        _ponderTime = System.nanoTime() - start;
+    }
+
+    /** Return true iff BOARD is the position pondered by the last call of
+     *  startPondering, so that _bestMove, _bestDepth, _bestScore, the
+     *  search counters, and the move-ordering tables hold the results of
+     *  that search, which took _ponderTime nanoseconds.  The pondered
+     *  board had a different moveCount(), so _rootMoveCount must be reset
+     *  from BOARD before searching it. */
+    private boolean ponderHit(Board board) {
+        return _ponderKey != 0 && _ponderKey == board.hashKey()
+            && _bestMove != null && board.isLegal(_bestMove);
+    }
+
+    /** Return the move that wins soonest or loses latest from BOARD
+     *  according to _tablebase, or null if the tablebase does not show
+     *  BOARD's position to be won or lost. */
+    private Move tablebaseMove(Board board) {
+        if (_tablebase.probe(board, _tablebaseScratch) <= Tablebase.DRAW) {
+            return null;
+        }
+        Board b = new Board(board);
+        Move best = null;
+        int bestRank = -INFTY;
+        for (Move move : b.legalMoves(b.turn())) {
+            b.makeMove(move);
+            int value = _tablebase.probe(b, _tablebaseScratch);
+            int rank;
+            if (b.winner() != null) {
+                rank = b.winner() == _myPiece.side() ? INFTY : -INFTY;
+            } else if (value == Tablebase.DRAW) {
+                rank = 0;
+            } else if (Tablebase.isWin(value)) {
+                rank = Tablebase.plies(value) - 2 * Tablebase.LONGEST;
+            } else {
+                rank = 2 * Tablebase.LONGEST - Tablebase.plies(value);
+            }
+            b.undo();
+            if (best == null || rank > bestRank) {
+                best = move;
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+
+    /** Return the value of BOARD, whose value VALUE in _tablebase is a win
+     *  or a loss, preferring quicker wins and slower losses. */
+    private int tablebaseScore(Board board, int value) {
+        int plies =
+            Tablebase.plies(value) + board.moveCount() - _rootMoveCount;
+        Piece winner = Tablebase.isWin(value) ? board.turn()
+            : board.turn().opponent();
+        return (winner == WHITE ? 1 : -1) * (TABLEBASE_WIN_VALUE - plies);
+    }
+
+    /** Clear my search counters. */
+    void clearCounts() {
+        _nodes = _leafEvals = _betaCutoffs = _firstMoveCutoffs = 0;
+    }
+
+    /** Add the search counters of OTHER, which is not searching, to mine,
+     *  and clear OTHER's. */
+    void takeCounts(AI other) {
+        _nodes += other._nodes;
+        _leafEvals += other._leafEvals;
+        _betaCutoffs += other._betaCutoffs;
+        _firstMoveCutoffs += other._firstMoveCutoffs;
+        other.clearCounts();
+    }
+
+    /** Search BOARD to DEPTH plies for the side indicated by SENSE (as for
+     *  findMove), setting _lastFoundMove to the move found, and return its
+     *  value, which is expected to be near GUESS, the value of the
+     *  previous iteration.  With aspiration windows on, the search starts
+     *  with a window of 1/ASPIRATION_WINDOWS of the weights'
+     *  captureMargin() on each side of GUESS, widening it by a factor of
+     *  ASPIRATION_GROWTH on the side it fails, until the value falls
+     *  inside it.  Sets _stopped if the search was cut short. */
+    int aspirationSearch(Board board, int depth, int sense, int guess) {
+        long delta = max(1, _weights.captureMargin() / ASPIRATION_WINDOWS);
+        long alpha = -INFTY, beta = INFTY;
+        if (_aspiration && depth > 1 && abs(guess) < DECISIVE_VALUE) {
+            alpha = guess - delta;
+            beta = guess + delta;
+        }
+        while (true) {
+            _lastFoundMove = null;
+            int score = searchRoot(board, depth, sense, (int) alpha,
+                                   (int) beta);
+            if (_stopped) {
+                return score;
+            } else if (score <= alpha && alpha > -INFTY) {
+                delta *= ASPIRATION_GROWTH;
+                alpha = max(-INFTY, (long) score - delta);
+            } else if (score >= beta && beta < INFTY) {
+                delta *= ASPIRATION_GROWTH;
+                beta = min(INFTY, (long) score + delta);
+            } else {
+                return score;
+            }
+        }
+    }
+
+    /** Search BOARD to DEPTH plies for the side indicated by SENSE (as for
+     *  findMove), setting _lastFoundMove to the move found, and return its
+     *  value, within the window ALPHA .. BETA.  Sets _stopped if the
+     *  search was cut short. */
+    int searchRoot(Board board, int depth, int sense, int alpha, int beta) {
+        return findMove(board, depth, true, sense, alpha, beta);
+    }
+
+    /** Start _threads - 1 helper searches of BOARD (Lazy SMP).  Each helper
+     *  is an AI playing my side on its own copy of BOARD and sharing my
+     *  transposition table; they search the same root by iterative
+     *  deepening, odd-numbered helpers starting one ply deeper, so that
+     *  they fill the table with results that my own search then finds. */
+    void startHelpers(Board board) {
+        if (_threads == 1) {
+            releaseHelpers();
+            return;
+        }
+        if (_helpers == null || _helpers.length != _threads - 1) {
+            releaseHelpers();
+            _pool = Executors.newFixedThreadPool(_threads - 1, r -> {
+                Thread thread = new Thread(r, "tablut-search-helper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            _helpers = new AI[_threads - 1];
+            _helperResults = new Future<?>[_threads - 1];
+        }
+        for (int i = 0; i < _helpers.length; i += 1) {
+            if (_helpers[i] == null || _helpers[i]._myPiece != _myPiece) {
+                _helpers[i] = new AI(_myPiece, _controller);
+            }
+            AI helper = _helpers[i];
+            Board copy = new Board(board);
+            int firstDepth = 1 + (i % 2);
+            helper._table = _table;
+            helper._tablebase = _tablebase;
+            helper.copySearchOptions(this);
+            helper._stopped = helper._stopRequested = false;
+            helper._deadline = Long.MAX_VALUE;
+            helper.clearCounts();
+            _helperResults[i] =
+                _pool.submit(() -> helper.helperSearch(copy, firstDepth));
+        }
+    }
+
+    /** Stop the helper searches started by startHelpers and wait for them
+     *  to finish. */
+    void stopHelpers() {
+        if (_threads == 1) {
+            return;
+        }
+        for (AI helper : _helpers) {
+            helper.stop();
+        }
+        try {
+            for (Future<?> result : _helperResults) {
+                result.get();
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException("search helper failed: " + excp);
+        }
+        for (AI helper : _helpers) {
+            takeCounts(helper);
+        }
+    }
+
+    /** Shut down the threads of my helper searches, if any, and discard
+     *  the helpers. */
+    private void releaseHelpers() {
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+        _helpers = null;
+        _helperResults = null;
+    }
+
+    @Override
+    void release() {
+        stopPondering();
+        releaseHelpers();
+    }
+
+    /** Search BOARD as a helper thread, by iterative deepening from
+     *  FIRSTDEPTH, until stopped. */
+    private void helperSearch(Board board, int firstDepth) {
+        int sense = board.turn() == BLACK ? -1 : 1;
+        startOrdering(board);
+        for (int depth = firstDepth; depth <= MAX_DEPTH; depth += 1) {
+            _searchDepth = depth;
+            findMove(board, depth, false, sense, -INFTY, INFTY);
+            if (_stopped) {
+                break;
+            }
+        }
+    }
+
+    /** Ask the current search to stop as soon as possible.  May be called
+     *  from any thread. */
+    void stop() {
+        _stopRequested = true;
+    }
+
+    /** Return true iff the current search should stop now: after the
+     *  first iteration, because stop() was called or its time is up.  The
+     *  first iteration always finishes, so that there is a move to play. */
+    boolean shouldStop() {
+        return _searchDepth > 1
+            && (_stopRequested || System.nanoTime() > _deadline);
+    }
+
+    /** Return the number of milliseconds to spend on my next move: the
+     *  controller's per-move limit, reduced to a share of my remaining clock
+     *  time if a clock is running, or DEFAULT_MOVE_TIME if neither is
+     *  set. */
+    private long moveTime() {
+        long budget = _controller.moveTime();
+        long left = _controller.timeLeft(_myPiece);
+        if (left >= 0) {
+            long share = left / MOVES_TO_GO;
+            budget = budget == 0 ? share : min(budget, share);
+        } else if (budget == 0) {
+            budget = DEFAULT_MOVE_TIME;
+        }
+        return max(budget, MIN_MOVE_TIME);
     }
 
     /** The move found by the last call to one of the ...FindMove methods
      *  below. */
-    private Move _lastFoundMove;
+    Move _lastFoundMove;
+
+    /** Number of positions visited by the current search. */
+    long _nodes;
+    /** Numbers of static evaluations, of nodes cut off by a move, and of
+     *  nodes cut off by their first move in the current search. */
+    long _leafEvals, _betaCutoffs, _firstMoveCutoffs;
+    /** Depth of the current iteration of the search. */
+    int _searchDepth;
+    /** Value of System.nanoTime() at which the search should stop. */
+    long _deadline;
+    /** True iff the current search ran out of time.  Its results are
+     *  then incomplete and are discarded. */
+    boolean _stopped;
+
+    /** Set (from any thread) to ask the current search to stop. */
+    volatile boolean _stopRequested;
+
+    /** The number of threads to search with. */
+    int _threads;
+    /** The AIs that run the helper searches when _threads > 1. */
+    private AI[] _helpers;
+    /** The pending results of the helpers' searches. */
+    private Future<?>[] _helperResults;
+    /** The threads that run the helper searches. */
+    private ExecutorService _pool;
+
+    /** The codes (as for Move.code) of the moves being searched at each
+     *  ply. */
+    int[][] _moveBuffers;
+    /** Ordering scores of the moves being searched at each ply. */
+    int[][] _moveScores;
+    /** _killers[2 * p] and _killers[2 * p + 1] are the indices of the last
+     *  two quiet moves that caused cutoffs at ply p (-1 if none). */
+    int[] _killers;
+    /** _history[s][m] rates the move with index m by side s (0 for black,
+     *  1 for white) by the cutoffs it has caused. */
+    int[][] _history;
+    /** _counterMoves[m] is the index of the last move that caused a cutoff
+     *  in reply to the move with index m (-1 if none). */
+    int[] _counterMoves;
+    /** The moveCount() of the board at the root of the current search. */
+    int _rootMoveCount;
+
+    /** The endgame tablebase used by the current search, or null. */
+    Tablebase _tablebase;
+    /** Scratch space for probing _tablebase. */
+    private final int[] _tablebaseScratch = new int[Tablebase.MAX_PIECES];
+    /** The weights of the terms of staticScore. */
+    Weights _weights;
+    /** True iff leaves are extended by a quiescence search. */
+    boolean _quiescence;
+    /** True iff the search tries null moves. */
+    boolean _nullMove;
+    /** True iff the search reduces the depth of late moves. */
+    boolean _lmr;
+    /** True iff a reduced search that fails high is repeated at full
+     *  depth. */
+    boolean _research;
+    /** True iff moves after the first are searched with a null window
+     *  (principal variation search). */
+    boolean _pvs;
+    /** True iff each iteration at the root starts with a narrow window
+     *  around the previous iteration's value. */
+    boolean _aspiration;
+    /** True iff I search while my opponent considers its move. */
+    boolean _ponder;
+    /** The thread that runs the search started by startPondering, or null
+     *  if I am not pondering. */
+    private Thread _ponderer;
+    /** The hash key of the position after the reply expected by the last
+     *  search started by startPondering, or 0 if there was none. */
+    private long _ponderKey;
+    /** The time, in nanoseconds, spent by that search. */
+    private long _ponderTime;
+    /** The best move found by the deepest finished iteration of the
+     *  current or last search. */
+    private Move _bestMove;
+    /** The depth of the search that found _bestMove. */
+    private int _bestDepth;
+    /** The value of _bestMove, for white. */
+    private int _bestScore;
+
+    /** True while searching the reply to a null move, during which no
+     *  further null moves are made. */
+    boolean _inNullMove;
+
+    /** Size of my transposition table in megabytes. */
+    private int _hashMegabytes;
+    /** Results of earlier searches, shared by all my searches and my
+     *  helpers'. */
+    TranspositionTable _table;
 
     /** Find a move from position BOARD and return its value, recording
      *  the move found in _lastFoundMove iff SAVEMOVE. The move
      *  should have maximal value or have value > BETA if SENSE==1,
      *  and minimal value or value < ALPHA if SENSE==-1. Searches up to
      *  DEPTH levels.  Searching at level 0 simply returns a static estimate
-     *  of the board value and does not set _lastMoveFound. */
-    private int findMove(Board board, int depth, boolean saveMove,
-                         int sense, int alpha, int beta) {
-        if (depth == 0) {
-            return staticScore(board);
-        } else {
-            if (sense == 1) {
-                List<Move> allMoves = board.legalMoves(WHITE);
-                int maxEval = -INFTY;
-                for (Move move: allMoves) {
-                    Board b = new Board(board);
-                    b.makeMove(move);
-                    int eval = findMove(b, depth - 1, false, -1, alpha, beta);
-                    maxEval = max(maxEval, eval);
-                    alpha = max(alpha, eval);
-                    if (saveMove && (_lastFoundMove == null
-                            || eval == maxEval)) {
-                        _lastFoundMove = move;
-                    }
-                    if (board.winner() == WHITE) {
-                        return WINNING_VALUE;
-                    }
-                    if (board.winner() == BLACK) {
-                        return -WINNING_VALUE;
-                    }
-                    if (beta <= alpha) {
-                        break;
-                    }
-                }
-                return maxEval;
+     *  of the board value and does not set _lastMoveFound.  Each move is
+     *  made on BOARD and undone before the next, so BOARD is unchanged on
+     *  return.  Values here are for white; the search itself (negamax)
+     *  works with values for the side to move. */
+    int findMove(Board board, int depth, boolean saveMove,
+                 int sense, int alpha, int beta) {
+        if (sense == 1) {
+            return negamax(board, depth, saveMove, 1, alpha, beta);
+        }
+        return -negamax(board, depth, saveMove, -1, -beta, -alpha);
+    }
+
+    /** Return the value of BOARD for the side to move, which is white if
+     *  SENSE is 1 and black if it is -1, searched to DEPTH plies within
+     *  the window ALPHA .. BETA, and record the best move in
+     *  _lastFoundMove iff SAVEMOVE.  Values are those of findMove times
+     *  SENSE, so that each side maximizes.  The first move is searched
+     *  with the full window and, when PVS is on, later ones with a null
+     *  window (see searchMove). */
+    int negamax(Board board, int depth, boolean saveMove, int sense,
+                int alpha, int beta) {
+        _nodes += 1;
+        if ((_nodes & CLOCK_CHECK_MASK) == 0 && shouldStop()) {
+            _stopped = true;
+        }
+        if (_stopped) {
+            return 0;
+        }
+        if (depth == 0 && _quiescence && board.winner() == null) {
+            return quiesce(board, sense, alpha, beta);
+        }
+        if (depth == 0 || board.winner() != null) {
+            _leafEvals += 1;
+            return sense * staticScore(board);
+        }
+        if (_tablebase != null && !saveMove) {
+            int value = _tablebase.probe(board, _tablebaseScratch);
+            if (value > Tablebase.DRAW) {
+                return sense * tablebaseScore(board, value);
+            }
+        }
+        long key = board.hashKey();
+        long entry = _table.probe(key);
+        int plies = board.moveCount() - _rootMoveCount;
+        if (entry != 0 && !saveMove
+            && TranspositionTable.depth(entry) >= depth) {
+            int score =
+                sense * searchScore(TranspositionTable.score(entry), plies);
+            switch (relativeBound(TranspositionTable.bound(entry), sense)) {
+            case TranspositionTable.EXACT:
+                return score;
+            case TranspositionTable.LOWER:
+                alpha = max(alpha, score);
+                break;
+            default:
+                beta = min(beta, score);
+                break;
+            }
+            if (beta <= alpha) {
+                return score;
+            }
+        }
+        int alpha0 = alpha;
+        int ply = min(board.moveCount() - _rootMoveCount, MAX_PLY - 1);
+        Piece side = sense == 1 ? WHITE : BLACK;
+        if (!saveMove && nullMoveAllowed(board, depth, sense, alpha, beta)) {
+            int reduction = NULL_MOVE_REDUCTION
+                + (depth >= NULL_MOVE_DEEP ? 1 : 0);
+            _inNullMove = true;
+            board.makeNullMove();
+            int eval = -negamax(board, max(0, depth - 1 - reduction), false,
+                                -sense, -beta, 1 - beta);
+            board.undoNullMove();
+            _inNullMove = false;
+            if (_stopped) {
+                return 0;
+            }
+            if (eval >= beta && eval < DECISIVE_VALUE) {
+                return beta;
+            }
+        }
+        int[] moves = _moveBuffers[ply], scores = _moveScores[ply];
+        int n = board.legalMoves(side, moves, 0);
+        scoreMoves(board, moves, n, TranspositionTable.move(entry), ply,
+                   side, scores);
+        int bestMove = 0;
+        int bestEval = -INFTY;
+        for (int i = 0; i < n; i += 1) {
+            int move = pickMove(moves, scores, n, i);
+            int eval = searchMove(board, move, i, scores[i], depth, sense,
+                                  alpha, beta);
+            if (_stopped) {
+                return 0;
+            }
+            if (bestMove == 0 || eval > bestEval) {
+                bestMove = move;
+                bestEval = eval;
+            }
+            alpha = max(alpha, eval);
+            if (alpha >= beta) {
+                countCutoff(i);
+                noteCutoff(board, move, ply, depth, side);
+                break;
+            }
+        }
+        if (saveMove) {
+            _lastFoundMove = Move.decode(bestMove);
+        }
+        int bound = bestEval <= alpha0 ? TranspositionTable.UPPER
+            : bestEval >= beta ? TranspositionTable.LOWER
+            : TranspositionTable.EXACT;
+        _table.store(key, depth, tableScore(sense * bestEval, plies),
+                     relativeBound(bound, sense), Move.decode(bestMove));
+        return bestEval;
+    }
+
+    /** Return SCORE, the value of a node PLY plies from the root, as it is
+     *  kept in the transposition table, which outlives the search: values
+     *  from the tablebase, which count the plies to a win or loss from the
+     *  root, count them from the node instead. */
+    static int tableScore(int score, int ply) {
+        if (abs(score) >= DECISIVE_VALUE && abs(score) < WILL_WIN_VALUE) {
+            return score + Integer.signum(score) * ply;
+        }
+        return score;
+    }
+
+    /** Return SCORE, a value kept in the transposition table, as the value
+     *  of a node PLY plies from the root (the inverse of tableScore). */
+    static int searchScore(int score, int ply) {
+        return tableScore(score, -ply);
+    }
+
+    /** Return BOUND, a transposition-table bound on a value for white,
+     *  as a bound on the value for the side indicated by SENSE, or the
+     *  reverse: lower and upper bounds trade places for black. */
+    private static int relativeBound(int bound, int sense) {
+        if (sense == 1 || bound == TranspositionTable.EXACT) {
+            return bound;
+        }
+        return bound == TranspositionTable.LOWER ? TranspositionTable.UPPER
+            : TranspositionTable.LOWER;
+    }
+
+    /** Return true iff the search of BOARD to DEPTH plies, with the side
+     *  indicated by SENSE to move and window ALPHA .. BETA (as for
+     *  negamax), may first try a null move: null moves are enabled, none is
+     *  being searched already, DEPTH is large enough, neither bound shows
+     *  a forced result, the static score already reaches BETA, the
+     *  opponent has a move, and the position is not one in which having to
+     *  move may hurt the side to move (the king surrounded by attackers,
+     *  or few moves left), so that passing would not be a fair test. */
+    boolean nullMoveAllowed(Board board, int depth, int sense, int alpha,
+                            int beta) {
+        Piece side = sense == 1 ? WHITE : BLACK;
+        if (!_nullMove || _inNullMove || depth < NULL_MOVE_MIN_DEPTH
+            || abs(alpha) >= DECISIVE_VALUE || abs(beta) >= DECISIVE_VALUE
+            || board.kingAttackers() >= NULL_MOVE_MAX_ATTACKERS
+            || board.mobility(side) < NULL_MOVE_MIN_MOBILITY
+            || !board.hasMove(side.opponent())) {
+            return false;
+        }
+        return sense * staticScore(board) >= beta;
+    }
+
+    /** Return the value, for the side indicated by SENSE, of making the
+     *  move coded as MOVE in BOARD, the Ith move tried, with ordering
+     *  score SCORE, at DEPTH plies to go, within the window ALPHA ..
+     *  BETA (as for negamax).  When PVS is on, moves after the first are
+     *  searched with a null window just above ALPHA, and searched again
+     *  with the full window only if they beat it.  (The window's width is
+     *  computed in long, since a full window's overflows an int.)  Quiet
+     *  late moves (after the first LMR_FULL_MOVES, ordered by history
+     *  alone, not by the king) are searched to a depth reduced by one ply,
+     *  or two after the first LMR_LATE_MOVES, less one if the move's
+     *  history score shows it caused a cutoff at this depth.  A reduced
+     *  search that beats ALPHA is repeated at full depth. */
+    int searchMove(Board board, int move, int i, int score, int depth,
+                   int sense, int alpha, int beta) {
+        int reduction = 0;
+        if (_lmr && depth >= LMR_MIN_DEPTH && i >= LMR_FULL_MOVES
+            && score < COUNTER_MOVE_SCORE
+            && (move & Move.CAPTURE) == 0
+            && Move.from(move) != board.kingPosition().index()) {
+            reduction = i < LMR_LATE_MOVES ? 1 : 2;
+            if (score >= depth * depth) {
+                reduction -= 1;
+            }
+            reduction = min(reduction, depth - 1);
+        }
+        int full = depth - 1, reduced = full - reduction;
+        boolean scout = _pvs && i > 0 && (long) beta - alpha > 1;
+        int low = scout ? -alpha - 1 : -beta;
+        board.makeMove(move);
+        int eval = -negamax(board, reduced, false, -sense, low, -alpha);
+        if (reduction > 0 && _research && eval > alpha && !_stopped) {
+            reduced = full;
+            eval = -negamax(board, full, false, -sense, low, -alpha);
+        }
+        if (scout && eval > alpha && eval < beta && !_stopped) {
+            eval = -negamax(board, reduced, false, -sense, -beta, -alpha);
+        }
+        board.undo();
+        return eval;
+    }
+
+    /** Return the value of BOARD for the side to move, indicated by SENSE
+     *  (as for negamax), after the captures (and king moves toward the
+     *  edge) that the side to move and then its opponent choose to make,
+     *  so that leaves of the main search are not evaluated in the middle
+     *  of an exchange.  At each node the side to move may instead "stand
+     *  pat" on the static score, which therefore bounds the value; it
+     *  does not try captures at all when even a gain of
+     *  _weights.captureMargin() would leave it at or below ALPHA (delta
+     *  pruning).  The node itself has already been counted. */
+    int quiesce(Board board, int sense, int alpha, int beta) {
+        _leafEvals += 1;
+        int standPat = sense * staticScore(board);
+        int ply = board.moveCount() - _rootMoveCount;
+        if (board.winner() != null || abs(standPat) >= WILL_WIN_VALUE
+            || ply >= MAX_PLY - 1 || standPat >= beta) {
+            return standPat;
+        }
+        alpha = max(alpha, standPat);
+        boolean futile = standPat + _weights.captureMargin() <= alpha;
+        int[] moves = _moveBuffers[ply];
+        int n = board.captureMoves(sense == 1 ? WHITE : BLACK, moves, 0);
+        int best = standPat;
+        for (int i = 0; i < n; i += 1) {
+            int move = moves[i];
+            if (futile && (move & Move.CAPTURE) != 0) {
+                continue;
+            }
+            _nodes += 1;
+            if ((_nodes & CLOCK_CHECK_MASK) == 0 && shouldStop()) {
+                _stopped = true;
+            }
+            if (_stopped) {
+                return 0;
+            }
+            board.makeMove(move);
+            int eval = -quiesce(board, -sense, -beta, -alpha);
+            board.undo();
+            if (_stopped) {
+                return 0;
+            }
+            best = max(best, eval);
+            alpha = max(alpha, eval);
+            if (alpha >= beta) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /** Set SCORES[i] to the ordering score of the move coded as MOVES[i],
+     *  for 0 <= i < N, these being the legal moves of SIDE at ply PLY of
+     *  the search of BOARD.  HASHMOVE (if not null) comes first, then
+     *  captures, then the two killer moves of PLY, then the reply that last
+     *  refuted the opponent's previous move, and then the rest by history
+     *  score. */
+    void scoreMoves(Board board, int[] moves, int n, Move hashMove,
+                    int ply, Piece side, int[] scores) {
+        int[] history = _history[side == WHITE ? 1 : 0];
+        Move previous = board.lastMove();
+        int counter = previous == null ? -1 : _counterMoves[previous.index()];
+        int hash = hashMove == null ? -1 : hashMove.code();
+        for (int i = 0; i < n; i += 1) {
+            int move = moves[i];
+            int m = Move.index(move);
+            if ((move & ~Move.CAPTURE) == hash) {
+                scores[i] = HASH_MOVE_SCORE;
+            } else if ((move & Move.CAPTURE) != 0) {
+                scores[i] = CAPTURE_SCORE;
+            } else if (m == _killers[2 * ply]) {
+                scores[i] = KILLER_SCORE;
+            } else if (m == _killers[2 * ply + 1]) {
+                scores[i] = KILLER_SCORE - 1;
+            } else if (m == counter) {
+                scores[i] = COUNTER_MOVE_SCORE;
             } else {
-                List<Move> allMoves = board.legalMoves(BLACK);
-                int minEval = INFTY;
-                for (Move move: allMoves) {
-                    Board b = new Board(board);
-                    b.makeMove(move);
-                    int eval = findMove(b, depth - 1, false, 1, alpha, beta);
-                    minEval = min(minEval, eval);
-                    beta = min(beta, eval);
-                    if (saveMove && (_lastFoundMove == null
-                            || eval == minEval)) {
-                        _lastFoundMove = move;
-                    }
-                    if (board.winner() == WHITE) {
-                        return WINNING_VALUE;
-                    }
-                    if (board.winner() == BLACK) {
-                        return -WINNING_VALUE;
-                    }
-                    if (beta <= alpha) {
-                        break;
-                    }
-                }
-                return minEval;
-            }
-        }
-    }
-
-    /** Return a heuristically determined maximum search depth
-     *  based on characteristics of BOARD. */
-    private static int maxDepth(Board board) {
-        int x = board.moveCount();
-        if (x > 15) {
-            return 10;
-        }
-        if (x > 10) {
-            return 7;
-        }
-        if (x > 5) {
-            return 5;
-        }
-        return 2;
-    }
-    /** Check distance between king and regular piece.
-     * @param kRow = king's row
-     * @param kCol = king's col
-     * @param row = piece's row
-     * @param col = piece's col
-     * @return distance between the two pieces */
-    private int distance(int kRow, int kCol, int row, int col) {
-        return (int) Math.sqrt(Math.pow((kRow - row), 2)
-                + Math.pow(kCol - col, 2));
-    }
-    /** check if a square has a black piece.
-     * @param pos = the square's position
-     * @param board = the board
-     * @return 1 if pos is black and 0 if not */
-    private int checkSquareBlack(Square pos, Board board) {
-        if (pos != null && board.get(pos) == BLACK) {
-            return 1;
+                scores[i] = history[m];
+            }
+        }
+    }
+
+    /** Move the highest-scoring of MOVES[I .. N - 1] to MOVES[I], keeping
+     *  SCORES parallel to MOVES, and return it. */
+    static int pickMove(int[] moves, int[] scores, int n, int i) {
+        int best = i;
+        for (int k = i + 1; k < n; k += 1) {
+            if (scores[k] > scores[best]) {
+                best = k;
+            }
+        }
+        int result = moves[best];
+        if (best != i) {
+            int score = scores[best];
+            moves[best] = moves[i];
+            moves[i] = result;
+            scores[best] = scores[i];
+            scores[i] = score;
+        }
+        return result;
+    }
+
+    /** Count a cutoff by the move with index I in the order tried. */
+    void countCutoff(int i) {
+        _betaCutoffs += 1;
+        if (i == 0) {
+            _firstMoveCutoffs += 1;
+        }
+    }
+
+    /** Record that the move coded as MOVE, played by SIDE at ply PLY of the
+     *  search of BOARD with DEPTH plies to go, caused a cutoff.  Captures
+     *  are tried early anyway; other moves become killers of PLY, the
+     *  counter to the previous move, and gain history score. */
+    void noteCutoff(Board board, int move, int ply, int depth,
+                    Piece side) {
+        if ((move & Move.CAPTURE) != 0) {
+            return;
+        }
+        int m = Move.index(move);
+        if (_killers[2 * ply] != m) {
+            _killers[2 * ply + 1] = _killers[2 * ply];
+            _killers[2 * ply] = m;
+        }
+        Move previous = board.lastMove();
+        if (previous != null) {
+            _counterMoves[previous.index()] = m;
+        }
+        int[] history = _history[side == WHITE ? 1 : 0];
+        history[m] = min(history[m] + depth * depth, MAX_HISTORY_SCORE);
+    }
+
+    /** Prepare the move-ordering tables for a new search from BOARD:
+     *  create them if need be, forget the killers, and age the history
+     *  scores. */
+    void startOrdering(Board board) {
+        if (_killers == null) {
+            makeOrderingTables(null);
+        }
+        Arrays.fill(_killers, -1);
+        for (int[] history : _history) {
+            for (int m = 0; m < history.length; m += 1) {
+                history[m] /= 2;
+            }
+        }
+        _rootMoveCount = board.moveCount();
+    }
+
+    /** Create my move-ordering tables.  If SHARED is not null, use its
+     *  history and counter-move tables rather than new ones. */
+    void makeOrderingTables(AI shared) {
+        _killers = new int[2 * MAX_PLY];
+        _moveBuffers = new int[MAX_PLY][Board.MAX_MOVES];
+        _moveScores = new int[MAX_PLY][Board.MAX_MOVES];
+        Arrays.fill(_killers, -1);
+        if (shared != null) {
+            _history = shared._history;
+            _counterMoves = shared._counterMoves;
         } else {
-            return 0;
+            _history = new int[2][Move.NUM_MOVES];
+            _counterMoves = new int[Move.NUM_MOVES];
+            Arrays.fill(_counterMoves, -1);
         }
     }
 
     /** Return a heuristic value for BOARD. */
-    private int staticScore(Board board) {
+    int staticScore(Board board) {
         Square kingPos = board.kingPosition();
         if (board.winner() == WHITE) {
             return WINNING_VALUE;
         } else if (board.winner() == BLACK) {
             return -WINNING_VALUE;
-        } else if (kingPos.rookMove(0, 1).isEdge()
-                || kingPos.rookMove(1, 1).isEdge()
-                || kingPos.rookMove(2, 1).isEdge()
-                || kingPos.rookMove(3, 1).isEdge()) {
+        } else if (kingPos.col() <= 1 || kingPos.col() >= Board.SIZE - 2
+                || kingPos.row() <= 1 || kingPos.row() >= Board.SIZE - 2) {
             return WILL_WIN_VALUE;
         } else if (board.repeatedPosition()) {
             if (_myPiece == WHITE || _myPiece == KING) {
@@ -184,42 +1104,7 @@ class AI extends Player {
                 return WINNING_VALUE;
             }
         } else {
-            int kCol = kingPos.col();
-            int kRow = kingPos.row();
-            int[] cornerDists = {
-                    distance(kRow, kCol, 0, 0),
-                    distance(kRow, kCol, 0, 8),
-                    distance(kRow, kCol, 8, 0),
-                    distance(kRow, kCol, 8, 8)
-            };
-            int kingCornerDist = INFTY;
-            for (int i = 0; i < cornerDists.length; i++) {
-                if (cornerDists[i] < kingCornerDist) {
-                    kingCornerDist = cornerDists[i];
-                }
-            }
-            int whiteLegal = board.legalMoves(WHITE).size();
-            int blackLegal = board.legalMoves(BLACK).size();
-
-            Square north = kingPos.rookMove(0, 1);
-            Square east = kingPos.rookMove(1, 1);
-            Square south = kingPos.rookMove(2, 1);
-            Square west = kingPos.rookMove(3, 1);
-            Square northEast = north.rookMove(1, 1);
-            Square northWest = north.rookMove(3, 1);
-            Square southEast = south.rookMove(1, 1);
-            Square southWest = south.rookMove(3, 1);
-            Square[] kingNeighourSquares = {north, east, south, west,
-                northWest, northEast, southWest, southEast};
-            int kingNeighours = 0;
-            for (int i = 0; i < kingNeighourSquares.length; i++) {
-                kingNeighours += checkSquareBlack(kingNeighourSquares[i],
-                        board);
-            }
-            int whiteScore = (9 - kingCornerDist) * 3
-                    + (whiteLegal - blackLegal);
-            int blackScore = (kingNeighours * 3) + (blackLegal - whiteLegal);
-            return whiteScore - blackScore;
+            return _weights.evaluate(board);
         }
     }
 }
@@ -1,13 +1,15 @@
 package tablut;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Stack;
+import java.util.Random;
 import java.util.Formatter;
 
 import static tablut.Piece.*;
 import static tablut.Square.*;
+import static tablut.Move.ROOK_MOVES;
 import static tablut.Move.mv;
 
 
@@ -27,6 +29,11 @@ class Board {
         WTHRONE = sq(3, 4),
         ETHRONE = sq(5, 4);
 
+    /** The largest number of legal moves for one side in any position:
+     *  that of sixteen pieces each with eight moves along its row and eight
+     *  along its column. */
+    static final int MAX_MOVES = 256;
+
     /** Initial positions of attackers. */
     static final Square[] INITIAL_ATTACKERS = {
         sq(0, 3), sq(0, 4), sq(0, 5), sq(1, 4),
@@ -59,6 +66,91 @@ class Board {
             sq(8, 2), sq(8, 6), sq(8, 7), sq(8, 8)
     };
 
+    /** Index of the throne square. */
+    private static final int THRONE_INDEX = THRONE.index();
+
+    /** NEIGHBOR[4 * i + d] is the index of the square one step from the
+     *  square with index i in direction d (as for Square.rookMove), or -1
+     *  if there is none.  NEIGHBOR2 is the same for two steps. */
+    private static final int[] NEIGHBOR = new int[4 * NUM_SQUARES],
+        NEIGHBOR2 = new int[4 * NUM_SQUARES];
+
+    static {
+        for (Square s : SQUARE_LIST) {
+            for (int d = 0; d < 4; d += 1) {
+                Square n1 = s.rookMove(d, 1), n2 = s.rookMove(d, 2);
+                NEIGHBOR[4 * s.index() + d] = n1 == null ? -1 : n1.index();
+                NEIGHBOR2[4 * s.index() + d] = n2 == null ? -1 : n2.index();
+            }
+        }
+    }
+
+    /** STEP[d] is the difference in index between a square and the next
+     *  one in direction d (as for Square.rookMove). */
+    private static final int[] STEP = { SIZE, 1, -SIZE, -1 };
+
+    /** RAY[2 * (4 * i + d) + w] is word w of the set (as for _black) of
+     *  squares in ROOK_SQUARES[i][d]: those in direction d from the square
+     *  with index i. */
+    private static final long[] RAY = new long[8 * NUM_SQUARES];
+
+    static {
+        for (Square s : SQUARE_LIST) {
+            for (int d = 0; d < 4; d += 1) {
+                int k = 2 * (4 * s.index() + d);
+                for (Square t : ROOK_SQUARES[s.index()][d]) {
+                    RAY[k + (t.index() >>> 6)] |= 1L << t.index();
+                }
+            }
+        }
+    }
+
+    /** KING_AREA[i] lists the indices of the (up to eight) squares around
+     *  the square with index i, and KING_ADJACENT[i][j] is true iff the
+     *  square with index j is one of them. */
+    private static final int[][] KING_AREA = new int[NUM_SQUARES][];
+    /** See KING_AREA. */
+    private static final boolean[][] KING_ADJACENT =
+        new boolean[NUM_SQUARES][NUM_SQUARES];
+
+    static {
+        for (Square s : SQUARE_LIST) {
+            int[] area = new int[8];
+            int n = 0;
+            for (int dc = -1; dc <= 1; dc += 1) {
+                for (int dr = -1; dr <= 1; dr += 1) {
+                    if ((dc != 0 || dr != 0)
+                        && exists(s.col() + dc, s.row() + dr)) {
+                        area[n] = sq(s.col() + dc, s.row() + dr).index();
+                        KING_ADJACENT[s.index()][area[n]] = true;
+                        n += 1;
+                    }
+                }
+            }
+            KING_AREA[s.index()] = Arrays.copyOf(area, n);
+        }
+    }
+
+    /** Initial capacity of the undo history. */
+    private static final int HISTORY_SIZE = 256;
+
+    /** ZOBRIST[p.ordinal() * NUM_SQUARES + i] is the random key of Piece p
+     *  on the square with index i (0 for EMPTY).  The keys are produced from
+     *  a fixed seed, so hash values are the same in every run. */
+    private static final long[] ZOBRIST =
+        new long[Piece.values().length * NUM_SQUARES];
+
+    /** The key added to hashKey() when it is WHITE's turn. */
+    private static final long WHITE_TO_MOVE;
+
+    static {
+        Random keys = new Random(0x7AB1D7L);
+        for (int i = NUM_SQUARES; i < ZOBRIST.length; i += 1) {
+            ZOBRIST[i] = keys.nextLong();
+        }
+        WHITE_TO_MOVE = keys.nextLong();
+    }
+
     /** Initializes a game board with SIZE squares on a side in the
      *  initial position. */
     Board() {
@@ -70,62 +162,69 @@ class Board {
         copy(model);
     }
 
-    /** Copies MODEL into me. */
+    /** Copies MODEL into me.  The copy starts with an empty undo
+     *  history. */
     void copy(Board model) {
         if (model == this) {
             return;
         }
-        init();
-        _board = new Piece[SIZE][SIZE];
-        for (int r = 0; r < SIZE; r++) {
-            for (int c = 0; c < SIZE; c++) {
-                _board[c][r] = model.get(c, r);
-            }
+        System.arraycopy(model._black, 0, _black, 0, _black.length);
+        System.arraycopy(model._white, 0, _white, 0, _white.length);
+        _king = model._king;
+        System.arraycopy(model._material, 0, _material, 0, 2);
+        for (int side = 0; side < 2; side += 1) {
+            System.arraycopy(model._pieces[side], 0, _pieces[side], 0,
+                             _material[side]);
         }
+        System.arraycopy(model._pieceIndex, 0, _pieceIndex, 0,
+                         NUM_SQUARES);
+        System.arraycopy(model._mobility, 0, _mobility, 0, 2);
+        System.arraycopy(model._rays, 0, _rays, 0, _rays.length);
+        _kingAttackers = model._kingAttackers;
+        _key = model._key;
         _moveCount = 0;
-        _winner = null;
+        _winner = model._winner;
         _turn = model.turn();
-        _repeated = false;
-        encodedboards = new HashSet<>();
-        undos = model.undos;
-        sstack = model.sstack;
-        pstack = model.pstack;
-        capture = false;
+        _repeated = model._repeated;
         _lim = model._lim;
+        clearUndo();
+        int n = model._keysLen - model._reversibleFrom;
+        if (_keys.length < n) {
+            _keys = new long[model._keys.length];
+        }
+        System.arraycopy(model._keys, model._reversibleFrom, _keys, 0, n);
+        _keysLen = n;
     }
 
     /** Clears the board to the initial position. */
     void init() {
-        _board = new Piece[SIZE][SIZE];
+        clear(BLACK);
+        for (Square s : INITIAL_ATTACKERS) {
+            put(BLACK, s);
+        }
+        for (Square s : INITIAL_DEFENDERS) {
+            put(WHITE, s);
+        }
+        put(KING, THRONE);
+        clearUndo();
+    }
+
+    /** Remove all pieces and make it SIDE's turn, with no winner and no
+     *  moves made, so that a position may be set up with put. */
+    void clear(Piece side) {
+        Arrays.fill(_black, 0L);
+        Arrays.fill(_white, 0L);
+        _king = -1;
+        Arrays.fill(_material, 0);
+        Arrays.fill(_mobility, 0);
+        Arrays.fill(_rays, 0);
+        _kingAttackers = 0;
+        _key = 0;
         _moveCount = 0;
         _winner = null;
-        _turn = BLACK;
-        sstack = new Stack<Square>();
-        pstack = new Stack<Piece>();
-        undos = new Stack<Move>();
-        encodedboards = new HashSet<String>();
-        for (int r = 0;  r < SIZE; r++) {
-            for (int c = 0; c < SIZE; c++) {
-                if (c == 4 && r == 4) {
-                    _board[c][r] = KING;
-                }
-                for (Square sq: INITIAL_ATTACKERS) {
-                    if (sq.col() == c && sq.row() == r) {
-                        _board[c][r] = BLACK;
-                    }
-                }
-                for (Square sq2: INITIAL_DEFENDERS) {
-                    if (sq2.col() == c && sq2.row() == r) {
-                        _board[c][r] = WHITE;
-                    }
-                }
-                for (Square sq3: INITIAL_EMPTY_SQUARES) {
-                    if (sq3.col() == c && sq3.row() == r) {
-                        _board[c][r] = EMPTY;
-                    }
-                }
-            }
-        }
+        _repeated = false;
+        _turn = side;
+        clearUndo();
     }
 
     /** Set the move limit to LIM.  It is an error if 2*LIM <= moveCount().
@@ -154,15 +253,27 @@ class Board {
     }
 
     /** Record current position and set winner() next mover if the current
-     *  position is a repeat. */
+     *  position is a repeat.  Only positions since the last capture can
+     *  repeat, so the scan stops there. */
     private void checkRepeated() {
-        String mine = this.encodedBoard();
-        if (encodedboards.contains(mine.substring(1))) {
-            _repeated = true;
-            _winner = turn().opponent();
-        } else {
-            encodedboards.add(mine.substring(1));
+        for (int k = _keysLen - 1; k >= _reversibleFrom; k -= 1) {
+            if (_keys[k] == _key) {
+                _repeated = true;
+                _winner = turn().opponent();
+                break;
+            }
+        }
+        if (_keysLen == _keys.length) {
+            _keys = Arrays.copyOf(_keys, 2 * _keysLen);
         }
+        _keys[_keysLen] = _key;
+        _keysLen += 1;
+    }
+
+    /** Return a 64-bit hash of the current position, including whose
+     *  turn it is.  Equal positions have equal hashes. */
+    long hashKey() {
+        return _turn == WHITE ? _key ^ WHITE_TO_MOVE : _key;
     }
 
     /** Return the number of moves since the initial position that have not been
@@ -171,29 +282,45 @@ class Board {
         return _moveCount;
     }
 
-    /** Return location of the king. */
+    /** Return location of the king, or null if it has been captured. */
     Square kingPosition() {
-        Square kp = null;
-        for (int r = 0;  r < SIZE; r++) {
-            for (int c = 0; c < SIZE; c++) {
-                if (_board[c][r].name().equals("KING")) {
-                    kp = sq(c, r);
-                }
-            }
-        }
-        return kp;
+        return _king < 0 ? null : sq(_king);
+    }
+
+    /** Return the number of pieces of SIDE (WHITE's including the king)
+     *  on the board. */
+    int material(Piece side) {
+        return _material[side == BLACK ? 0 : 1];
+    }
+
+    /** Return the location of the Kth piece of SIDE (WHITE's including the
+     *  king), where 0 <= K < material(SIDE).  The order of the pieces is
+     *  arbitrary. */
+    Square piece(Piece side, int k) {
+        return sq(_pieces[side == BLACK ? 0 : 1][k]);
+    }
+
+    /** Return the number of legal moves of SIDE, which is
+     *  legalMoves(SIDE).size(). */
+    int mobility(Piece side) {
+        return _mobility[side == BLACK ? 0 : 1];
+    }
+
+    /** Return the number of black pieces on the eight squares around the
+     *  king (0 if it has been captured). */
+    int kingAttackers() {
+        return _kingAttackers;
     }
 
     /** Return the contents the square at S. */
     final Piece get(Square s) {
-        return get(s.col(), s.row());
+        return get(s.index());
     }
 
     /** Return the contents of the square at (COL, ROW), where
      *  0 <= COL, ROW <= 9. */
     final Piece get(int col, int row) {
-        Piece x = _board[col][row];
-        return x;
+        return get(row * SIZE + col);
     }
 
     /** Return the contents of the square at COL ROW. */
@@ -201,16 +328,29 @@ class Board {
         return get(row - '1', col - 'a');
     }
 
-    /** Set square S to P. */
-    final void put(Piece p, Square s) {
-        _board[s.col()][s.row()] = p;
+    /** Return the contents of the square with index I. */
+    private Piece get(int i) {
+        if (i == _king) {
+            return KING;
+        } else if (has(_white, i)) {
+            return WHITE;
+        } else if (has(_black, i)) {
+            return BLACK;
+        } else {
+            return EMPTY;
+        }
     }
 
-    /** Set square S to P and record for undoing. */
-    final void revPut(Piece p, Square s) {
-        pstack.push(get(s));
-        sstack.push(s);
-        put(p, s);
+    /** Set square S to P. */
+    final void put(Piece p, Square s) {
+        int i = s.index();
+        _key ^= zobrist(get(i), i) ^ zobrist(p, i);
+        if (occupied(i)) {
+            removePiece(i);
+        }
+        if (p != EMPTY) {
+            addPiece(p, i);
+        }
     }
 
     /** Set square COL ROW to P. */
@@ -222,52 +362,60 @@ class Board {
      *  board.  For this to be true, FROM-TO must be a rook move and the
      *  squares along it, other than FROM, must be empty. */
     boolean isUnblockedMove(Square from, Square to) {
-        boolean isit = true;
-        int dir = from.direction(to);
-        Square curr = from.rookMove(dir, 1);
-        if (from.row() == to.row() && from.col() == to.col()) {
-            isit = false;
-        }
         if (!from.isRookMove(to)) {
-            isit = false;
+            return false;
         }
-        if (from.isRookMove(to)) {
-            while (curr != to) {
-                if (_board[curr.col()][curr.row()] != EMPTY) {
-                    isit = false;
-                }
-                curr = curr.rookMove(dir, 1);
-            }
+        int f = from.index(), t = to.index(), d = from.direction(to);
+        return (t - f) / STEP[d] <= reach(f, d);
+    }
+
+    /** Return the index of the nearest occupied square in direction D from
+     *  the square with index I, or -1 if there is none.  On the 81-bit set
+     *  of occupied squares, this is the lowest member of the ray for
+     *  directions of increasing index (north and east) and the highest
+     *  member for the others. */
+    private int blocker(int i, int d) {
+        int k = 2 * (4 * i + d);
+        long lo = RAY[k] & (_black[0] | _white[0]),
+            hi = RAY[k + 1] & (_black[1] | _white[1]);
+        if (STEP[d] > 0) {
+            return lo != 0 ? Long.numberOfTrailingZeros(lo)
+                : hi != 0 ? 64 + Long.numberOfTrailingZeros(hi) : -1;
+        } else {
+            return hi != 0 ? 127 - Long.numberOfLeadingZeros(hi)
+                : lo != 0 ? 63 - Long.numberOfLeadingZeros(lo) : -1;
+        }
+    }
+
+    /** Return the number of empty squares in direction D from the square
+     *  with index I before the first occupied one or the edge. */
+    private int reach(int i, int d) {
+        int b = blocker(i, d);
+        return b < 0 ? ROOK_SQUARES[i][d].size() : (b - i) / STEP[d] - 1;
+    }
+
+    /** Return the number of legal moves in direction D of the piece on the
+     *  square with index I.  Only the king may stop on the throne. */
+    private int rayMoves(int i, int d) {
+        int n = reach(i, d);
+        if (i != _king && n > 0
+            && (RAY[2 * (4 * i + d) + (THRONE_INDEX >>> 6)]
+                & (1L << THRONE_INDEX)) != 0
+            && (THRONE_INDEX - i) / STEP[d] <= n) {
+            n -= 1;
         }
-        return isit;
+        return n;
     }
 
     /** Return true iff FROM is a valid starting square for a move. */
     boolean isLegal(Square from) {
-        return get(from) == _turn;
+        return get(from).side() == _turn;
     }
 
     /** Return true iff FROM-TO is a valid move. */
     boolean isLegal(Square from, Square to) {
-        Piece there = _board[to.col()][to.row()];
-        Piece here = get(from.col(), from.row());
-        if (to == THRONE && get(from) != KING) {
-            return false;
-        }
-        if (!isUnblockedMove(from, to)) {
-            return false;
-        }
-        if (there != EMPTY) {
-            return false;
-        }
-        if (here == _turn || (here == KING && _turn.equals(WHITE))) {
-            return isUnblockedMove(from, to);
-        }
-        if (!isLegal(from)) {
-            return false;
-        }
-
-        return true;
+        return isLegal(from) && isUnblockedMove(from, to)
+            && (to != THRONE || from.index() == _king);
     }
 
     /** Return true iff MOVE is a legal move in the current
@@ -279,296 +427,375 @@ class Board {
     /** Move FROM-TO, assuming this is a legal move. */
     void makeMove(Square from, Square to) {
         assert isLegal(from, to);
-        Piece moving = _board[from.col()][from.row()];
-        revPut(moving, to);
-        put(EMPTY, from);
-        undos.push(mv(from, to));
-        capture = false;
-        if (get(THRONE) != KING && get(NTHRONE) != KING
-                && get(STHRONE) != KING && get(WTHRONE) != KING
-                && get(ETHRONE) != KING) {
-            for (Square sq: possibleremove(to)) {
-                capture(to, sq);
+        makeMove(from.index(), to.index());
+    }
+
+    /** Make the move coded (as for Move.code) as MOVE, assuming it is a
+     *  legal move. */
+    void makeMove(int move) {
+        makeMove(Move.from(move), Move.to(move));
+    }
+
+    /** Move from the square with index F to the one with index T, assuming
+     *  this is a legal move. */
+    private void makeMove(int f, int t) {
+        Piece moving = get(f);
+        pushHistory(f, t);
+        movePiece(moving, f, t);
+        _key ^= zobrist(moving, f) ^ zobrist(moving, t);
+        int captured = possibleremove(t);
+        for (int d = 0; d < 4; d += 1) {
+            if ((captured & (1 << d)) != 0) {
+                capture(NEIGHBOR[4 * t + d]);
             }
         }
-        if (possibleremove(to) != null) {
-            for (Square sq: possibleremove(to)) {
-                capture(to, sq);
-            }
+        _histCaptured[_histLen - 1] = captured;
+        if (captured != 0) {
+            _reversibleFrom = _keysLen;
         }
-        if (kingPosition() == null) {
+        if (_king < 0) {
             _winner = BLACK;
-        }
-        if (_winner == null) {
-            int kc = kingPosition().col();
-            int kr = kingPosition().row();
-            if ((kc == 0 && kr == 0) || (kc == 0 && kr == 8)
-                    || (kc == 8 && kr == 0) || (kc == 8 && kr == 8)) {
-                _winner = WHITE;
-            }
+        } else if (isCorner(_king)) {
+            _winner = WHITE;
         }
         _moveCount += 1;
         checkRepeated();
         _turn = turn().opponent();
+        if (_winner == null && !hasMove(_turn)) {
+            _winner = _turn.opponent();
+        }
     }
 
     /** Move according to MOVE, assuming it is a legal move. */
     void makeMove(Move move) {
         makeMove(move.from(), move.to());
     }
-    /** Checking for pieces that can be removed when
-     * the king is in the throne.
-     * @param to = the square that is moved. */
-    void throne(Square to) {
-        if (get(THRONE) == KING) {
-            if (get(NTHRONE) == WHITE && get(STHRONE) == BLACK
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == BLACK) {
-                if (get(NTHRONE.between(to)) == WHITE && get(to) == BLACK) {
-                    revPut(EMPTY, NTHRONE.between(to));
-                    capture = true;
-                }
-            }
-            if (get(NTHRONE) == BLACK && get(STHRONE) == WHITE
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == BLACK) {
-                if (get(STHRONE.between(to)) == WHITE && get(to) == BLACK) {
-                    revPut(EMPTY, STHRONE.between(to));
-                    capture = true;
-                }
-            }
-            if (get(NTHRONE) == BLACK && get(STHRONE) == BLACK
-                    && get(ETHRONE) == WHITE && get(WTHRONE) == BLACK) {
-                if (get(ETHRONE.between(to)) == WHITE && get(to) == BLACK) {
-                    revPut(EMPTY, ETHRONE.between(to));
-                    capture = true;
-                }
-            }
-            if (get(NTHRONE) == BLACK && get(STHRONE) == BLACK
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == WHITE) {
-                if (get(WTHRONE.between(to)) == WHITE && get(to) == BLACK) {
-                    revPut(EMPTY, WTHRONE.between(to));
-                    capture = true;
-                }
-            }
-            if (get(NTHRONE) == BLACK && get(STHRONE) == BLACK
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == BLACK) {
-                revPut(EMPTY, kingPosition());
-                capture = true;
-                _winner = BLACK;
-            }
+
+    /** Return true iff the legal move MOVE would capture at least one
+     *  piece. */
+    boolean isCapture(Move move) {
+        return isCapture(move.from().index(), move.to().index());
+    }
+
+    /** Return true iff the legal move from the square with index F to the
+     *  one with index T would capture at least one piece. */
+    private boolean isCapture(int f, int t) {
+        long[] mine = has(_black, f) ? _black : _white;
+        int king = _king;
+        clear(mine, f);
+        set(mine, t);
+        if (_king == f) {
+            _king = t;
         }
+        boolean result = possibleremove(t) != 0;
+        clear(mine, t);
+        set(mine, f);
+        _king = king;
+        return result;
     }
-    /** Checking for pieces that can be removed when the
-     * king is not in the throne.
-     * @param to = the square that is moved. */
-    void throneEmpty(Square to) {
-        if (get(THRONE) == EMPTY) {
-            if (_turn == BLACK) {
-                if (get(NTHRONE) == KING) {
-                    if (get(THRONE.rookMove(0, 2)) == BLACK
-                            && get(NTHRONE.rookMove(1, 1)) == BLACK
-                            && get(NTHRONE.rookMove(3, 1)) == BLACK) {
-                        revPut(EMPTY, NTHRONE);
-                        capture = true;
-                        _winner = turn();
-                    }
-                }
-                if (get(STHRONE) == KING) {
-                    if (get(THRONE.rookMove(2, 2)) == BLACK
-                            && get(STHRONE.rookMove(3, 1)) == BLACK
-                            && get(STHRONE.rookMove(1, 1)) == BLACK) {
-                        revPut(EMPTY, STHRONE);
-                        capture = true;
-                        _winner = turn();
-                    }
-                }
-                if (get(ETHRONE) == KING) {
-                    if (get(THRONE.rookMove(1, 2)) == BLACK
-                            && get(ETHRONE.rookMove(0, 1)) == BLACK
-                            && get(ETHRONE.rookMove(2, 1)) == BLACK) {
-                        revPut(EMPTY, ETHRONE);
-                        capture = true;
-                        _winner = turn();
-                    }
-                }
-                if (get(WTHRONE) == KING) {
-                    if (get(THRONE.rookMove(3, 2)) == BLACK
-                            && get(WTHRONE.rookMove(0, 1)) == BLACK
-                            && get(WTHRONE.rookMove(2, 1)) == BLACK) {
-                        revPut(EMPTY, WTHRONE);
-                        capture = true;
-                        _winner = turn();
-                    }
-                }
-                if (get(THRONE.between(to)) == WHITE) {
-                    revPut(EMPTY, THRONE.between(to));
-                    capture = true;
-                }
-            }
-            if (_turn == WHITE) {
-                if (get(THRONE.between(to)) == BLACK) {
-                    revPut(EMPTY, THRONE.between(to));
-                    capture = true;
-                }
-            }
+
+    /** Return the last move made and not undone, or null if there is none
+     *  in the undo history. */
+    Move lastMove() {
+        if (_histLen == 0) {
+            return null;
         }
+        int m = _histMove[_histLen - 1];
+        return mv(sq(m & 0x7f), sq(m >>> 7));
     }
-    /** Helper function to check which squares either could be
-     * removed or should be removed.
-     * @return = a list of moves i can remove
-     * @param to = the square that is moved. */
-    List<Square> possibleremove(Square to) {
-        List<Square> possible = new ArrayList<>();
-        List<Square> remove = new ArrayList<>();
-        throne(to);
-        throneEmpty(to);
-        Square first = to.rookMove(0, 2);
-        if (first != null) {
-            possible.add(first);
-        }
-        Square second = to.rookMove(1, 2);
-        if (second != null) {
-            possible.add(second);
-        }
-        Square third = to.rookMove(2, 2);
-        if (third != null) {
-            possible.add(third);
-        }
-        Square fourth = to.rookMove(3, 2);
-        if (fourth != null) {
-            possible.add(fourth);
-        }
-        for (Square sq : possible) {
-            if (get(THRONE) != KING && get(NTHRONE) != KING
-                    && get(STHRONE) != KING && get(WTHRONE) != KING
-                    && get(ETHRONE) != KING && get(to.between(sq)) == KING
-                    && get(to) == BLACK && get(sq) == BLACK) {
-                remove.add(sq);
-                revPut(EMPTY, to.between(sq));
-                capture = true;
-                _winner = BLACK;
+
+    /** Return a bit mask of the directions (as for Square.rookMove) in which
+     *  the piece that just moved to the square with index TO captures the
+     *  adjacent enemy piece.  All captures are decided on the position
+     *  before any of them is removed. */
+    private int possibleremove(int to) {
+        boolean black = has(_black, to);
+        int result = 0;
+        for (int d = 0; d < 4; d += 1) {
+            int victim = NEIGHBOR[4 * to + d], beyond = NEIGHBOR2[4 * to + d];
+            if (victim < 0) {
+                continue;
             }
-            if (get(to.between(sq)) == _turn.opponent() && (get(to) == _turn)
-                    && (get(sq) == _turn)) {
-                revPut(EMPTY, to.between(sq));
-                capture = true;
-                remove.add(sq);
+            boolean captured;
+            if (!black) {
+                captured = has(_black, victim) && beyond >= 0
+                    && hostileToBlack(beyond);
+            } else if (victim == _king) {
+                captured = kingCaptured(beyond);
+            } else {
+                captured = has(_white, victim) && beyond >= 0
+                    && hostileToWhite(beyond);
             }
-            if (get(to.between(sq)) == BLACK && (get(to) == WHITE
-                    || get(to) == KING) && (get(sq) == WHITE
-                    || get(sq) == KING)) {
-                revPut(EMPTY, to.between(sq));
-                capture = true;
-                remove.add(sq);
+            if (captured) {
+                result |= 1 << d;
             }
         }
-        return remove;
-    }
-    /** Capture the piece between SQ0 and SQ2, assuming a piece just moved to
-     *  SQ0 and the necessary conditions are satisfied. */
-    private void capture(Square sq0, Square sq2) {
-        Piece p0 = get(sq0.col(), sq0.row());
-        Piece p2 = get(sq2.col(), sq2.row());
-        Square next = sq0.between(sq2);
-        Piece between = get(next.col(), next.row());
-        Square throneS = THRONE;
-        Piece throneP = get(THRONE);
-        if (get(THRONE) == KING) {
-            if (get(NTHRONE) == BLACK && get(STHRONE) == BLACK
-                    && get(ETHRONE) == BLACK && get(WTHRONE) == BLACK) {
-                revPut(EMPTY, kingPosition());
-                capture = true;
-                _winner = BLACK;
+        return result;
+    }
+
+    /** Return true iff the king, which has a black piece next to it, is
+     *  captured, given that BEYOND is the index of the square on the far side
+     *  of the king from that piece (-1 if off the board).  On or next to the
+     *  throne, the king must be surrounded on all four sides by hostile
+     *  squares; elsewhere it is captured like any other piece. */
+    private boolean kingCaptured(int beyond) {
+        if (_king == THRONE_INDEX || NEIGHBOR_OF_THRONE[_king]) {
+            for (int d = 0; d < 4; d += 1) {
+                int s = NEIGHBOR[4 * _king + d];
+                if (!has(_black, s)
+                    && (s != THRONE_INDEX || occupied(s))) {
+                    return false;
+                }
             }
+            return true;
         }
-        if (p0 == _turn && p2 == _turn && between == _turn.opponent()) {
-            revPut(EMPTY, sq0.between(sq2));
-            capture = true;
+        return beyond >= 0 && has(_black, beyond);
+    }
+
+    /** Return true iff the square with index S is hostile to a black
+     *  piece next to it. */
+    private boolean hostileToBlack(int s) {
+        return has(_white, s) || (s == THRONE_INDEX && !occupied(s));
+    }
+
+    /** Return true iff the square with index S is hostile to a white
+     *  piece next to it.  The throne is hostile when empty, and also when the
+     *  king occupies it and black holds three of the squares around it. */
+    private boolean hostileToWhite(int s) {
+        if (has(_black, s)) {
+            return true;
+        } else if (s != THRONE_INDEX) {
+            return false;
+        } else if (_king != THRONE_INDEX) {
+            return !occupied(s);
         }
-        if (get(THRONE) == EMPTY) {
-            throneP = _turn;
-            if (get(throneS.between(sq2)) == _turn.opponent()) {
-                revPut(EMPTY, throneS.between(sq2));
-                capture = true;
-            }
-            if (get(NTHRONE) != KING && get(STHRONE) != KING
-                    && get(ETHRONE) != KING && get(WTHRONE) != KING) {
-                if (get(sq0.between(sq2)) == KING && p0 == BLACK
-                        && p2 == BLACK) {
-                    revPut(EMPTY, kingPosition());
-                    capture = true;
-                    _winner = BLACK;
-                }
+        int attackers = 0;
+        for (int d = 0; d < 4; d += 1) {
+            if (has(_black, NEIGHBOR[4 * s + d])) {
+                attackers += 1;
             }
         }
+        return attackers >= 3;
     }
 
-    /** Undo one move.  Has no effect on the initial board. */
+    /** Capture the piece on the square with index SQ, assuming the necessary
+     *  conditions are satisfied. */
+    private void capture(int sq) {
+        _key ^= zobrist(get(sq), sq);
+        removePiece(sq);
+    }
+
+    /** Undo one move, restoring the position, turn, winner and any pieces
+     *  it captured exactly as they were.  Has no effect on the initial
+     *  board. */
     void undo() {
-        if (_moveCount > 0) {
+        if (_moveCount > 0 && _histLen > 0) {
             undoPosition();
             _moveCount -= 1;
         }
     }
 
-    /** Remove record of current position in the set of positions encountered,
-     *  unless it is a repeated position or we are at the first move. */
+    /** Pass the turn to the other side without moving (a "null move", as
+     *  used by the AI's search), assuming that the game is not over and
+     *  that the other side has a move.  Must be undone by undoNullMove
+     *  before any other move is undone.  The history of positions and
+     *  lastMove() are unaffected. */
+    void makeNullMove() {
+        assert _winner == null && hasMove(_turn.opponent());
+        _turn = _turn.opponent();
+        _moveCount += 1;
+    }
+
+    /** Undo the null move made last by makeNullMove. */
+    void undoNullMove() {
+        _turn = _turn.opponent();
+        _moveCount -= 1;
+    }
+
+    /** Remove record of current position in the list of positions
+     *  encountered, and restore the position before the last move. */
     private void undoPosition() {
-        if (!_repeated || _moveCount > 0) {
-            if (capture) {
-                Piece ppop = pstack.pop();
-                Square spop = sstack.pop();
-                put(ppop, spop);
-                capture = false;
+        _keysLen -= 1;
+        _histLen -= 1;
+        int f = _histMove[_histLen] & 0x7f, t = _histMove[_histLen] >>> 7;
+        int captured = _histCaptured[_histLen];
+        Piece moved = get(t);
+        movePiece(moved, t, f);
+        for (int d = 0; d < 4; d += 1) {
+            if ((captured & (1 << d)) != 0) {
+                int s = NEIGHBOR[4 * t + d];
+                addPiece(s == _histKing[_histLen] ? KING
+                         : moved == BLACK ? WHITE : BLACK, s);
             }
-            String undoing = this.encodedBoard();
-            encodedboards.remove(undoing);
-            Move undid = undos.pop();
-            Square from = undid.from();
-            Piece to1 = _board[undid.to().col()][undid.to().row()];
-            put(to1, from);
-            put(EMPTY, undid.to());
         }
-        _repeated = false;
+        _winner = _histWinner[_histLen];
+        _repeated = _histRepeated[_histLen];
+        _key = _keys[_keysLen - 1];
+        _reversibleFrom = _histReversible[_histLen];
+        _turn = _turn.opponent();
+    }
+
+    /** Record the state needed to undo the move FROM-TO (square indices),
+     *  other than its captures, which are filled in afterwards. */
+    private void pushHistory(int from, int to) {
+        if (_histLen == _histMove.length) {
+            int n = 2 * _histLen;
+            _histMove = Arrays.copyOf(_histMove, n);
+            _histCaptured = Arrays.copyOf(_histCaptured, n);
+            _histKing = Arrays.copyOf(_histKing, n);
+            _histWinner = Arrays.copyOf(_histWinner, n);
+            _histRepeated = Arrays.copyOf(_histRepeated, n);
+            _histReversible = Arrays.copyOf(_histReversible, n);
+        }
+        _histMove[_histLen] = from | (to << 7);
+        _histCaptured[_histLen] = 0;
+        _histKing[_histLen] = _king;
+        _histWinner[_histLen] = _winner;
+        _histRepeated[_histLen] = _repeated;
+        _histReversible[_histLen] = _reversibleFrom;
+        _histLen += 1;
     }
 
     /** Clear the undo stack and board-position counts. Does not modify the
      *  current position or win status. */
     void clearUndo() {
-        undos = new Stack<>();
-        pstack = new Stack<>();
-        sstack = new Stack<>();
-        encodedboards = new HashSet<>();
+        _histLen = 0;
+        _keys[0] = _key;
+        _keysLen = 1;
+        _reversibleFrom = 0;
     }
 
     /** Return a new mutable list of all legal moves on the current board for
      *  SIDE (ignoring whose turn it is at the moment). */
     List<Move> legalMoves(Piece side) {
         List<Move> listOfMoves = new ArrayList<Move>();
-        HashSet<Square> locations = pieceLocations(side);
-        for (Square s:locations) {
-            for (int c = 0; c < SIZE; c++) {
-                if (isLegal(s, sq(c, s.row()))) {
-                    listOfMoves.add(mv(s, sq(c, s.row())));
+        int s = side == BLACK ? 0 : 1;
+        for (int p = 0; p < _material[s]; p += 1) {
+            int i = _pieces[s][p];
+            for (int d = 0; d < 4; d += 1) {
+                List<Move> moves = ROOK_MOVES[i][d];
+                for (int k = 0, n = reach(i, d); k < n; k += 1) {
+                    Move m = moves.get(k);
+                    if (m.to().index() != THRONE_INDEX || i == _king) {
+                        listOfMoves.add(m);
+                    }
                 }
             }
-            for (int r = 0;  r < SIZE; r++) {
-                if (isLegal(s, sq(s.col(), r))) {
-                    listOfMoves.add(mv(s, sq(s.col(), r)));
+        }
+        return listOfMoves;
+    }
+
+    /** Store the codes (as for Move.code) of all legal moves on the
+     *  current board for SIDE (ignoring whose turn it is) into MOVES,
+     *  starting at MOVES[START], and return the index after the last one
+     *  stored.  Moves that capture have the flag Move.CAPTURE; only those
+     *  to a square next to an enemy piece need be tested for captures (by
+     *  possibleremove).  There are at most MAX_MOVES of them. */
+    int legalMoves(Piece side, int[] moves, int start) {
+        int end = start;
+        int s = side == BLACK ? 0 : 1;
+        findTargets(s);
+        for (int p = 0; p < _material[s]; p += 1) {
+            int i = _pieces[s][p];
+            for (int d = 0; d < 4; d += 1) {
+                int t = i;
+                for (int k = reach(i, d); k > 0; k -= 1) {
+                    t += STEP[d];
+                    if (t != THRONE_INDEX || i == _king) {
+                        boolean capture =
+                            has(_targets, t) && isCapture(i, t);
+                        moves[end] =
+                            Move.code(i, t, capture ? Move.CAPTURE : 0);
+                        end += 1;
+                    }
                 }
             }
         }
-        if (listOfMoves.size() == 0) {
-            _winner = _turn.opponent();
+        return end;
+    }
+
+    /** Store the codes (as for Move.code) of the legal moves on the
+     *  current board for SIDE (ignoring whose turn it is) that capture at
+     *  least one piece, and, for white, of the king's moves to a square on
+     *  or next to the edge, into MOVES starting at MOVES[START], and
+     *  return the index after the last one stored.  Captures have the
+     *  flag Move.CAPTURE.  Only destinations next to an enemy piece are
+     *  tested for captures (by possibleremove), so this is much cheaper
+     *  than legalMoves. */
+    int captureMoves(Piece side, int[] moves, int start) {
+        int end = start;
+        int s = side == BLACK ? 0 : 1;
+        findTargets(s);
+        for (int p = 0; p < _material[s]; p += 1) {
+            int i = _pieces[s][p];
+            for (int d = 0; d < 4; d += 1) {
+                int t = i;
+                for (int k = reach(i, d); k > 0; k -= 1) {
+                    t += STEP[d];
+                    if (t == THRONE_INDEX && i != _king) {
+                        continue;
+                    }
+                    if (has(_targets, t) && isCapture(i, t)) {
+                        moves[end] = Move.code(i, t, Move.CAPTURE);
+                        end += 1;
+                    } else if (i == _king && NEAR_EDGE[t]) {
+                        moves[end] = Move.code(i, t, 0);
+                        end += 1;
+                    }
+                }
+            }
         }
-        return listOfMoves;
+        return end;
+    }
+
+    /** Set _targets to the squares next to a piece of the side with index
+     *  1 - S (0 for black, 1 for white), which are the only squares to
+     *  which a piece of side S can move to capture. */
+    private void findTargets(int s) {
+        _targets[0] = _targets[1] = 0;
+        for (int p = 0; p < _material[1 - s]; p += 1) {
+            int victim = _pieces[1 - s][p];
+            for (int d = 0; d < 4; d += 1) {
+                int t = NEIGHBOR[4 * victim + d];
+                if (t >= 0) {
+                    set(_targets, t);
+                }
+            }
+        }
+    }
+
+    /** Store the codes (as for Move.code) of the moves by which the side
+     *  that has just moved could have reached the current position from
+     *  one with the same pieces into MOVES, starting at MOVES[START], and
+     *  return the index after the last one stored.  These are the moves
+     *  that capture nothing, made from positions in which the game was not
+     *  already over (so the king did not leave a corner); repetitions are
+     *  not considered.  There are at most MAX_MOVES of them. */
+    int retroMoves(int[] moves, int start) {
+        int end = start;
+        int s = _turn == BLACK ? 1 : 0;
+        for (int p = 0; p < _material[s]; p += 1) {
+            int i = _pieces[s][p];
+            if (possibleremove(i) != 0) {
+                continue;
+            }
+            for (int d = 0; d < 4; d += 1) {
+                int f = i;
+                for (int k = reach(i, d); k > 0; k -= 1) {
+                    f += STEP[d];
+                    if (i == _king ? !isCorner(f) : f != THRONE_INDEX) {
+                        moves[end] = Move.code(f, i, 0);
+                        end += 1;
+                    }
+                }
+            }
+        }
+        return end;
     }
 
     /** Return true iff SIDE has a legal move. */
     boolean hasMove(Piece side) {
-        if (legalMoves(side).size() == 0) {
-            return false;
-        }
-        return true;
+        return _mobility[side == BLACK ? 0 : 1] > 0;
     }
 
     @Override
@@ -602,16 +829,19 @@ class Board {
         return out.toString();
     }
 
-    /** Return the locations of all pieces on SIDE. */
+    /** Return the locations of all pieces on SIDE.  The locations of WHITE
+     *  include the king's. */
     HashSet<Square> pieceLocations(Piece side) {
         assert side != EMPTY;
         HashSet<Square> locations = new HashSet<Square>();
-        for (int r = 0;  r < SIZE; r++) {
-            for (int c = 0; c < SIZE; c++) {
-                if (side.equals(_board[c][r])) {
-                    locations.add(sq(c, r));
-                }
+        if (side == KING) {
+            if (_king >= 0) {
+                locations.add(sq(_king));
             }
+            return locations;
+        }
+        for (int k = 0; k < material(side); k += 1) {
+            locations.add(piece(side, k));
         }
         return locations;
     }
@@ -627,6 +857,162 @@ class Board {
         return new String(result);
     }
 
+    /** Put P (not EMPTY) on the empty square with index I, updating the
+     *  material, king-attacker and mobility counts (but not _key). */
+    private void addPiece(Piece p, int i) {
+        int side = p == BLACK ? 0 : 1;
+        _pieceIndex[i] = _material[side];
+        _pieces[side][_material[side]] = i;
+        if (p == BLACK) {
+            set(_black, i);
+            _material[0] += 1;
+            if (_king >= 0 && KING_ADJACENT[_king][i]) {
+                _kingAttackers += 1;
+            }
+        } else {
+            set(_white, i);
+            _material[1] += 1;
+            if (p == KING) {
+                _king = i;
+                countKingAttackers();
+            }
+        }
+        for (int d = 0; d < 4; d += 1) {
+            updateRay(i, d);
+        }
+        lineChanged(i);
+    }
+
+    /** Remove the piece on the square with index I, updating the counts
+     *  as for addPiece. */
+    private void removePiece(int i) {
+        int side = has(_black, i) ? 0 : 1;
+        for (int d = 0; d < 4; d += 1) {
+            _mobility[side] -= _rays[4 * i + d];
+            _rays[4 * i + d] = 0;
+        }
+        int last = _pieces[side][_material[side] - 1];
+        _pieces[side][_pieceIndex[i]] = last;
+        _pieceIndex[last] = _pieceIndex[i];
+        if (side == 0) {
+            clear(_black, i);
+            _material[0] -= 1;
+            if (_king >= 0 && KING_ADJACENT[_king][i]) {
+                _kingAttackers -= 1;
+            }
+        } else {
+            clear(_white, i);
+            _material[1] -= 1;
+            if (_king == i) {
+                _king = -1;
+                _kingAttackers = 0;
+            }
+        }
+        lineChanged(i);
+    }
+
+    /** Move P from the square with index FROM to the empty square with
+     *  index TO, keeping its place in the piece list of its side. */
+    private void movePiece(Piece p, int from, int to) {
+        int side = p == BLACK ? 0 : 1, slot = _pieceIndex[from];
+        removePiece(from);
+        addPiece(p, to);
+        int last = _material[side] - 1;
+        if (slot != last) {
+            int[] list = _pieces[side];
+            list[last] = list[slot];
+            _pieceIndex[list[last]] = last;
+            list[slot] = to;
+            _pieceIndex[to] = slot;
+        }
+    }
+
+    /** Recompute _kingAttackers for the king's current square. */
+    private void countKingAttackers() {
+        _kingAttackers = 0;
+        for (int s : KING_AREA[_king]) {
+            if (has(_black, s)) {
+                _kingAttackers += 1;
+            }
+        }
+    }
+
+    /** Update the mobility counts of the other pieces after a piece has
+     *  been put on or removed from the square with index I.  Only the
+     *  nearest piece in each direction from I is affected, and only in its
+     *  moves toward I. */
+    private void lineChanged(int i) {
+        for (int d = 0; d < 4; d += 1) {
+            int s = blocker(i, d);
+            if (s >= 0) {
+                updateRay(s, (d + 2) % 4);
+            }
+        }
+    }
+
+    /** Recount the moves of the piece on the square with index I in
+     *  direction D, adjusting the mobility of its side to match. */
+    private void updateRay(int i, int d) {
+        int n = rayMoves(i, d);
+        int k = 4 * i + d;
+        _mobility[has(_black, i) ? 0 : 1] += n - _rays[k];
+        _rays[k] = n;
+    }
+
+    /** Return the Zobrist key of P on the square with index I. */
+    private static long zobrist(Piece p, int i) {
+        return ZOBRIST[p.ordinal() * NUM_SQUARES + i];
+    }
+
+    /** Return true iff the square with index I is in the square set SET
+     *  (two words of 64 bits, indexed by I / 64). */
+    private static boolean has(long[] set, int i) {
+        return (set[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /** Add the square with index I to SET. */
+    private static void set(long[] set, int i) {
+        set[i >>> 6] |= 1L << i;
+    }
+
+    /** Remove the square with index I from SET. */
+    private static void clear(long[] set, int i) {
+        set[i >>> 6] &= ~(1L << i);
+    }
+
+    /** Return true iff the square with index I holds a piece. */
+    private boolean occupied(int i) {
+        return ((_black[i >>> 6] | _white[i >>> 6]) & (1L << i)) != 0;
+    }
+
+    /** Return true iff the square with index I is a corner. */
+    static boolean isCorner(int i) {
+        return i == 0 || i == SIZE - 1 || i == NUM_SQUARES - SIZE
+            || i == NUM_SQUARES - 1;
+    }
+
+    /** NEAR_EDGE[i] is true iff the square with index i is on an edge or
+     *  next to one. */
+    private static final boolean[] NEAR_EDGE = new boolean[NUM_SQUARES];
+
+    static {
+        for (Square s : SQUARE_LIST) {
+            NEAR_EDGE[s.index()] = s.col() <= 1 || s.col() >= SIZE - 2
+                || s.row() <= 1 || s.row() >= SIZE - 2;
+        }
+    }
+
+    /** NEIGHBOR_OF_THRONE[i] is true iff the square with index i is
+     *  orthogonally adjacent to the throne. */
+    private static final boolean[] NEIGHBOR_OF_THRONE =
+        new boolean[NUM_SQUARES];
+
+    static {
+        for (Square s : new Square[] { NTHRONE, STHRONE, ETHRONE, WTHRONE }) {
+            NEIGHBOR_OF_THRONE[s.index()] = true;
+        }
+    }
+
     /** Piece whose turn it is (WHITE or BLACK). */
     private Piece _turn;
     /** Cached value of winner on this board, or EMPTY if it has not been
@@ -636,18 +1022,56 @@ class Board {
     private int _moveCount;
     /** True when current board is a repeated position (ending the game). */
     private boolean _repeated;
-    /** A Hashset of all the encodedboard strings of each moves. */
-    private HashSet<String> encodedboards;
-    /** A Stack of all the moves. */
-    private Stack<Move> undos;
-    /** A Stack of all the pieces. */
-    private Stack<Piece> pstack;
-    /** A Stack of all the squares. */
-    private Stack<Square> sstack;
-    /** a 2-D array of the piece as the board. */
-    private Piece[][] _board;
+    /** Zobrist hash of the pieces on the board (not of the turn). */
+    private long _key;
+    /** The Zobrist keys of the positions since the undo history was last
+     *  cleared, oldest first, ending with the current position. */
+    private long[] _keys = new long[HISTORY_SIZE];
+    /** Number of valid entries in _keys. */
+    private int _keysLen;
+    /** Index in _keys of the first position after the last capture.  No
+     *  earlier position can recur. */
+    private int _reversibleFrom;
+    /** The squares holding black pieces, as an 81-bit set: bit i % 64 of
+     *  word i / 64 is set iff the square with index i is occupied. */
+    private final long[] _black = new long[2];
+    /** The squares holding white pieces, including the king. */
+    private final long[] _white = new long[2];
+    /** Scratch set of the squares found by findTargets. */
+    private final long[] _targets = new long[2];
+    /** Index of the king's square, or -1 if it has been captured. */
+    private int _king;
+    /** The number of black (index 0) and white (index 1) pieces. */
+    private final int[] _material = new int[2];
+    /** _pieces[s][0 .. _material[s] - 1] are the indices of the squares
+     *  holding the pieces of side s (0 for black, 1 for white). */
+    private final int[][] _pieces = new int[2][NUM_SQUARES];
+    /** _pieceIndex[i] is the position of the square with index i in the
+     *  piece list of the piece on it (undefined if it is empty). */
+    private final int[] _pieceIndex = new int[NUM_SQUARES];
+    /** The number of legal moves of black (index 0) and white (index 1),
+     *  ignoring whose turn it is. */
+    private final int[] _mobility = new int[2];
+    /** _rays[4 * i + d] is the number of legal moves in direction d of the
+     *  piece on the square with index i (0 if the square is empty). */
+    private final int[] _rays = new int[4 * NUM_SQUARES];
+    /** The number of black pieces on the squares around the king. */
+    private int _kingAttackers;
+    /** Number of moves recorded in the undo history. */
+    private int _histLen;
+    /** For each recorded move, its from and to square indices (7 bits
+     *  each). */
+    private int[] _histMove = new int[HISTORY_SIZE];
+    /** For each recorded move, the directions in which it captured. */
+    private int[] _histCaptured = new int[HISTORY_SIZE];
+    /** For each recorded move, the king's index before it. */
+    private int[] _histKing = new int[HISTORY_SIZE];
+    /** For each recorded move, the winner before it. */
+    private Piece[] _histWinner = new Piece[HISTORY_SIZE];
+    /** For each recorded move, repeatedPosition() before it. */
+    private boolean[] _histRepeated = new boolean[HISTORY_SIZE];
+    /** For each recorded move, _reversibleFrom before it. */
+    private int[] _histReversible = new int[HISTORY_SIZE];
     /** The max number of moves a player can make before ending the game. */
     private int _lim;
-    /** To check is a move has been captured or not. */
-    private boolean capture;
 }
@@ -18,8 +18,6 @@ import static tablut.Square.sq;
 class BoardWidget extends Pad {
 
     /* Parameters controlling sizes, speeds, colors, and fonts. */
-    /** Initializing board. */
-    private Board game = new Board();
     /** Squares on each side of the board. */
     static final int SIZE = Board.SIZE;
 
@@ -29,6 +27,7 @@ class BoardWidget extends Pad {
         THRONE_COLOR = new Color(180, 255, 180),
         ADJACENT_THRONE_COLOR = new Color(200, 220, 200),
         CLICKED_SQUARE_COLOR = new Color(255, 255, 100),
+        BEST_MOVE_COLOR = new Color(150, 190, 255),
         GRID_LINE_COLOR = Color.black,
         WHITE_COLOR = Color.white,
         BLACK_COLOR = Color.black;
@@ -69,6 +68,17 @@ class BoardWidget extends Pad {
         g.setColor(THRONE_COLOR);
         g.fillRect(cx(Board.THRONE), cy(Board.THRONE),
                    SQUARE_SIDE, SQUARE_SIDE);
+        g.setColor(ADJACENT_THRONE_COLOR);
+        for (Square s : ADJACENT_THRONE) {
+            g.fillRect(cx(s), cy(s), SQUARE_SIDE, SQUARE_SIDE);
+        }
+        if (_bestMove != null) {
+            g.setColor(BEST_MOVE_COLOR);
+            g.fillRect(cx(_bestMove.from()), cy(_bestMove.from()),
+                       SQUARE_SIDE, SQUARE_SIDE);
+            g.fillRect(cx(_bestMove.to()), cy(_bestMove.to()),
+                       SQUARE_SIDE, SQUARE_SIDE);
+        }
         g.setColor(GRID_LINE_COLOR);
         for (int k = 0; k <= SIZE; k += 1) {
             g.drawLine(cx(0), cy(k - 1), cx(SIZE), cy(k - 1));
@@ -84,20 +94,20 @@ class BoardWidget extends Pad {
 
     /** Draw the contents of S on G. */
     private void drawPiece(Graphics2D g, Square s) {
-        if (game.get(s) != (EMPTY)) {
-            if (game.get(s) == (WHITE)) {
-                g.setColor(WHITE_COLOR);
-            } else if (game.get(s) == (BLACK)) {
-                g.setColor(BLACK_COLOR);
-            } else {
-                g.setColor(Color.DARK_GRAY);
-            }
-        }
-        if (game.get(s) == EMPTY) {
-            g.setColor(ADJACENT_THRONE_COLOR);
+        Piece piece = _board.get(s);
+        if (piece == EMPTY) {
+            return;
         }
         int px = cx(s), py = cy(s);
-        g.fillOval(px, py, SQUARE_SIDE, SQUARE_SIDE);
+        g.setColor(piece == BLACK ? BLACK_COLOR : WHITE_COLOR);
+        g.fillOval(px + 2, py + 2, SQUARE_SIDE - 4, SQUARE_SIDE - 4);
+        g.setColor(GRID_LINE_COLOR);
+        g.drawOval(px + 2, py + 2, SQUARE_SIDE - 4, SQUARE_SIDE - 4);
+        if (piece == KING) {
+            g.setFont(KING_FONT);
+            g.drawString("K", px + SQUARE_SIDE / 2 - 6,
+                         py + SQUARE_SIDE / 2 + 6);
+        }
     }
 
     /** Handle a click on S. */
@@ -122,6 +132,13 @@ class BoardWidget extends Pad {
         repaint();
     }
 
+    /** Highlight MOVE, the best move found so far by a search, or nothing
+     *  if MOVE is null. */
+    synchronized void setBestMove(Move move) {
+        _bestMove = move;
+        repaint();
+    }
+
     /** Turn on move collection iff COLLECTING, and clear any current
      *  partial selection.  When move collection is off, ignore clicks on
      *  the board. */
@@ -158,6 +175,8 @@ class BoardWidget extends Pad {
     private ArrayBlockingQueue<String> _commands;
     /** Board being displayed. */
     private final Board _board = new Board();
+    /** The move highlighted as the best found so far, or null. */
+    private Move _bestMove;
 
     /** True iff accepting moves from user. */
     private boolean _acceptingMoves;
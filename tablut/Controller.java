@@ -1,5 +1,8 @@
 package tablut;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Random;
 import java.util.Scanner;
@@ -43,16 +46,29 @@ final class Controller {
     /** Play Tablut. */
     void play() {
         _playing = true;
+        _quitRequested = false;
         _winner = null;
         _board.init();
+        resetClock();
         while (_playing) {
             _view.update(this);
             String command;
             if (_winner == null) {
-                if (_board.turn() == WHITE) {
-                    command = _white.myMove();
+                long start = System.currentTimeMillis();
+                Player mover = _board.turn() == WHITE ? _white : _black;
+                Player waiter = mover == _white ? _black : _white;
+                if (!mover.isManual()) {
+                    _thinker = mover;
+                } else if (!waiter.isManual()) {
+                    waiter.startPondering(_board);
+                }
+                command = mover.myMove();
+                _thinker = null;
+                waiter.stopPondering();
+                if (mover == _white) {
+                    _whiteLeft = charge(_whiteLeft, start);
                 } else {
-                    command = _black.myMove();
+                    _blackLeft = charge(_blackLeft, start);
                 }
             } else {
                 command = _nonPlayer.myMove();
@@ -60,6 +76,9 @@ final class Controller {
                     command = "quit";
                 }
             }
+            if (_quitRequested) {
+                command = "quit";
+            }
             try {
                 executeCommand(command);
             } catch (IllegalArgumentException excp) {
@@ -95,6 +114,69 @@ final class Controller {
         _randGen.setSeed(seed);
     }
 
+    /** Return the opening book set by the "book" command, or null if
+     *  there is none. */
+    OpeningBook book() {
+        return _book;
+    }
+
+    /** Have AIs play from BOOK (none if null). */
+    void setBook(OpeningBook book) {
+        _book = book;
+    }
+
+    /** Return the endgame tablebase set by the "tablebase" command, or
+     *  null if there is none. */
+    Tablebase tablebase() {
+        return _tablebase;
+    }
+
+    /** Have AIs use TABLEBASE (none if null). */
+    void setTablebase(Tablebase tablebase) {
+        _tablebase = tablebase;
+    }
+
+    /** Return the time limit for each move in milliseconds, as set by
+     *  setMoveTime, or 0 if there is none. */
+    long moveTime() {
+        return _moveTime;
+    }
+
+    /** Limit each move to MILLIS milliseconds (no limit if 0). */
+    void setMoveTime(long millis) {
+        _moveTime = millis;
+    }
+
+    /** Return the number of milliseconds left on SIDE's clock, or -1 if the
+     *  game is not being played with a clock. */
+    long timeLeft(Piece side) {
+        return side == BLACK ? _blackLeft : _whiteLeft;
+    }
+
+    /** Give white WHITE and black BLACK milliseconds for all their moves in
+     *  each game, starting now. */
+    void setClock(long white, long black) {
+        _whiteClock = white;
+        _blackClock = black;
+        resetClock();
+    }
+
+    /** Set the clocks to the times given to setClock, if any. */
+    private void resetClock() {
+        _whiteLeft = _whiteClock;
+        _blackLeft = _blackClock;
+    }
+
+    /** Return LEFT, the milliseconds left on a clock, less the time since
+     *  START (a value of System.currentTimeMillis()).  Returns -1 if there
+     *  is no clock (LEFT < 0), and never less than 0 otherwise. */
+    private long charge(long left, long start) {
+        if (left < 0) {
+            return left;
+        }
+        return Math.max(0, left - (System.currentTimeMillis() - start));
+    }
+
     /** Return the next line of input, or null if there is no more. First
      *  prompts for the line.  Trims the returned line (if any) of all
      *  leading and trailing whitespace. First issues a prompt iff PROMPT. */
@@ -110,6 +192,24 @@ final class Controller {
         }
     }
 
+    /** Ask the automated player searching for a move, if any, to stop
+     *  and play the best move it has found so far.  May be called from any
+     *  thread. */
+    void moveNow() {
+        Player thinker = _thinker;
+        if (thinker != null) {
+            thinker.moveNow();
+        }
+    }
+
+    /** Arrange for play to end before the next command, stopping any
+     *  search in progress and discarding the move it would produce.  May
+     *  be called from any thread. */
+    void requestQuit() {
+        _quitRequested = true;
+        moveNow();
+    }
+
     /** Return true iff white is a manual player. */
     boolean manualWhite() {
         return _white.isManual();
@@ -135,6 +235,26 @@ final class Controller {
         _reporter.reportMove(move);
     }
 
+    /** Report INFO, the statistics of the iterations so far of a search
+     *  by an AI that is still in progress, to my reporter. */
+    void reportProgress(SearchInfo info) {
+        _reporter.reportProgress(info);
+    }
+
+    /** Record INFO, the statistics of a search by an AI.  Report it if
+     *  statistics are on, and append it to the statistics file, if
+     *  any. */
+    void reportSearchInfo(SearchInfo info) {
+        _lastSearchInfo = info;
+        if (_showStats) {
+            _reporter.reportSearchInfo(info);
+        }
+        if (_statsFile != null) {
+            _statsFile.println(info.toCSV());
+            _statsFile.flush();
+        }
+    }
+
     /** Print a comment in the log.  The arguments FORMAT and ARGS are
      *  as for String.format. */
     void logComment(String format, Object... args) {
@@ -173,10 +293,47 @@ final class Controller {
         new Command("manual\\s+(white|black)$", this::doManual),
         new Command("auto\\s+(white|black)$", this::doAuto),
         new Command("limit\\s+(\\d+)$", this::doLimit),
+        new Command("hash\\s+(\\d+)$", this::doHash),
+        new Command("threads\\s+(\\d+)$", this::doThreads),
+        new Command("engine\\s+(smp|ybwc)$", this::doEngine),
+        new Command("time\\s+(\\d+)$", this::doTime),
+        new Command("clock\\s+(\\d+)\\s+(\\d+)$", this::doClock),
         new Command("toggle\\s+" + SQ + "$", this::doToggle),
+        new Command("perft\\s+(\\d+)(?:\\s+(\\d+))?$", this::doPerft),
+        new Command("stats$", this::doStats),
+        new Command("stats\\s+(on|off)$", this::doStatsMode),
+        new Command(STATS_FILE.pattern(), this::doStatsFile),
+        new Command("book\\s+off$", this::doBookOff),
+        new Command(BOOK_FILE.pattern(), this::doBook),
+        new Command("tablebase\\s+off$", this::doTablebaseOff),
+        new Command(TABLEBASE_FILE.pattern(), this::doTablebase),
+        new Command(WEIGHTS_FILE.pattern(), this::doWeights),
+        new Command(SET_OPTION.pattern(), this::doSet),
         new Command(Move.MOVE_PATTERN.pattern(), this::doMove)
     };
 
+    /** The pattern of the "stats csv FILE" command. */
+    private static final Pattern STATS_FILE =
+        Pattern.compile("stats\\s+csv\\s+(\\S+)$",
+                        Pattern.CASE_INSENSITIVE);
+
+    /** The pattern of the "book FILE" command. */
+    private static final Pattern BOOK_FILE =
+        Pattern.compile("book\\s+(\\S+)$", Pattern.CASE_INSENSITIVE);
+
+    /** The pattern of the "tablebase FILE" command. */
+    private static final Pattern TABLEBASE_FILE =
+        Pattern.compile("tablebase\\s+(\\S+)$", Pattern.CASE_INSENSITIVE);
+
+    /** The pattern of the "set OPTION VALUE" command. */
+    private static final Pattern SET_OPTION =
+        Pattern.compile("set\\s+(\\S+)\\s+(\\S+)$",
+                        Pattern.CASE_INSENSITIVE);
+
+    /** The pattern of the "weights FILE" command. */
+    private static final Pattern WEIGHTS_FILE =
+        Pattern.compile("weights\\s+(\\S+)$", Pattern.CASE_INSENSITIVE);
+
     /** A Matcher whose Pattern matches comments. */
     private static final Matcher COMMENT = Pattern.compile("#.*").matcher("");
 
@@ -189,7 +346,8 @@ final class Controller {
         }
 
         COMMENT.reset(cmnd);
-        cmnd = COMMENT.replaceFirst("").trim().toLowerCase();
+        _command = COMMENT.replaceFirst("").trim();
+        cmnd = _command.toLowerCase();
 
         if (cmnd.isEmpty()) {
             return;
@@ -208,15 +366,18 @@ final class Controller {
     private void doNew(Matcher unused) {
         _board.init();
         _winner = null;
+        resetClock();
     }
 
     /** Command "manual <color>", where <color> is COLOR.group(1). */
     private void doManual(Matcher color) {
         switch (color.group(1)) {
         case "black":
+            _black.release();
             _black = _manualPlayerTemplate.create(BLACK, this);
             break;
         case "white":
+            _white.release();
             _white = _manualPlayerTemplate.create(WHITE, this);
             break;
         default:
@@ -229,9 +390,11 @@ final class Controller {
     private void doAuto(Matcher color) {
         switch (color.group(1)) {
         case "black":
+            _black.release();
             _black = _autoPlayerTemplate.create(BLACK, this);
             break;
         case "white":
+            _white.release();
             _white = _autoPlayerTemplate.create(WHITE, this);
             break;
         default:
@@ -280,6 +443,73 @@ final class Controller {
         }
     }
 
+    /** Command "hash N" where N is the first captured group of MAT: use
+     *  N megabytes for each AI's transposition table. */
+    private void doHash(Matcher mat) {
+        setOption("hash", mat.group(1));
+    }
+
+    /** Command "threads N" where N is the first captured group of MAT: have
+     *  each AI search with N threads. */
+    private void doThreads(Matcher mat) {
+        setOption("threads", mat.group(1));
+    }
+
+    /** Command "engine <name>", where <name> is MAT.group(1): play
+     *  automated moves from now on with the AI searching by Lazy SMP
+     *  ("smp", the default) or by the Young Brothers Wait Concept ("ybwc"),
+     *  keeping the current engine options. */
+    private void doEngine(Matcher mat) {
+        AI template;
+        if (mat.group(1).equals("ybwc")) {
+            template = new ParallelAI();
+        } else {
+            template = new AI();
+        }
+        if (_autoPlayerTemplate instanceof AI) {
+            template.copyOptions((AI) _autoPlayerTemplate);
+        }
+        _autoPlayerTemplate = template;
+        if (!_white.isManual()) {
+            _white.release();
+            _white = _autoPlayerTemplate.create(WHITE, this);
+        }
+        if (!_black.isManual()) {
+            _black.release();
+            _black = _autoPlayerTemplate.create(BLACK, this);
+        }
+    }
+
+    /** Command "time N" where N is the first captured group of MAT: limit
+     *  each AI move to N milliseconds. */
+    private void doTime(Matcher mat) {
+        try {
+            setMoveTime(Long.parseLong(mat.group(1)));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /** Command "clock W B" where W and B are the captured groups of MAT:
+     *  give white W and black B milliseconds for the game. */
+    private void doClock(Matcher mat) {
+        try {
+            setClock(Long.parseLong(mat.group(1)),
+                     Long.parseLong(mat.group(2)));
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /** Set option NAME to VALUE in the current players and in the
+     *  templates for new ones. */
+    private void setOption(String name, String value) {
+        _autoPlayerTemplate.setOption(name, value);
+        _manualPlayerTemplate.setOption(name, value);
+        _white.setOption(name, value);
+        _black.setOption(name, value);
+    }
+
     /** Execute a move command matched in MAT. */
     private void doMove(Matcher mat) {
         _board.makeMove(Move.mv(mat.group(0)));
@@ -292,6 +522,127 @@ final class Controller {
         }
     }
 
+    /** Command "perft D [T]" where D and T are the captured groups of MAT:
+     *  print the number of positions D plies from the current one after
+     *  each legal move, and in all, searching with T threads (default 1). */
+    private void doPerft(Matcher mat) {
+        try {
+            int depth = Integer.parseInt(mat.group(1));
+            int threads =
+                mat.group(2) == null ? 1 : Integer.parseInt(mat.group(2));
+            if (threads < 1) {
+                throw error("need at least one thread");
+            }
+            Perft.run(new Board(_board), depth, threads, System.out);
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /** Command "stats": report the statistics of the last search by an
+     *  AI. */
+    private void doStats(Matcher unused) {
+        if (_lastSearchInfo == null) {
+            _reporter.reportNote("No search statistics yet.");
+        } else {
+            _reporter.reportSearchInfo(_lastSearchInfo);
+        }
+    }
+
+    /** Command "stats on" or "stats off", as given by MAT.group(1): start
+     *  or stop reporting the statistics of every AI search. */
+    private void doStatsMode(Matcher mat) {
+        _showStats = mat.group(1).equals("on");
+    }
+
+    /** Command "stats csv FILE": from now on, append the statistics of
+     *  every AI search to FILE as comma-separated values, starting with a
+     *  header line if FILE is new or empty.  FILE is taken from the
+     *  command as typed, since MAT has been lowercased. */
+    private void doStatsFile(Matcher unused) {
+        Matcher mat = STATS_FILE.matcher(_command);
+        if (!mat.matches()) {
+            throw error("bad stats command");
+        }
+        File file = new File(mat.group(1));
+        boolean fresh = file.length() == 0;
+        try {
+            PrintStream out =
+                new PrintStream(new FileOutputStream(file, true), true);
+            if (fresh) {
+                out.println(SearchInfo.CSV_HEADER);
+            }
+            if (_statsFile != null) {
+                _statsFile.close();
+            }
+            _statsFile = out;
+        } catch (IOException excp) {
+            throw error("could not open %s", file);
+        }
+    }
+
+    /** Command "book FILE": from now on, have AIs play from the opening
+     *  book in FILE when it has moves for the current position.  FILE is
+     *  taken from the command as typed, since MAT has been lowercased. */
+    private void doBook(Matcher unused) {
+        Matcher mat = BOOK_FILE.matcher(_command);
+        if (!mat.matches()) {
+            throw error("bad book command");
+        }
+        try {
+            setBook(OpeningBook.open(new File(mat.group(1))));
+        } catch (IOException excp) {
+            throw error("could not read book: %s", excp.getMessage());
+        }
+    }
+
+    /** Command "book off": stop using an opening book. */
+    private void doBookOff(Matcher unused) {
+        setBook(null);
+    }
+
+    /** Command "tablebase FILE": from now on, have AIs use the endgame
+     *  tablebase in FILE.  FILE is taken from the command as typed, since
+     *  MAT has been lowercased. */
+    private void doTablebase(Matcher unused) {
+        Matcher mat = TABLEBASE_FILE.matcher(_command);
+        if (!mat.matches()) {
+            throw error("bad tablebase command");
+        }
+        try {
+            setTablebase(Tablebase.open(new File(mat.group(1))));
+        } catch (IOException excp) {
+            throw error("could not read tablebase: %s", excp.getMessage());
+        }
+    }
+
+    /** Command "tablebase off": stop using an endgame tablebase. */
+    private void doTablebaseOff(Matcher unused) {
+        setTablebase(null);
+    }
+
+    /** Command "weights FILE": have the AIs evaluate positions with the
+     *  weights in FILE (see Weights).  FILE is taken from the command as
+     *  typed, since MAT has been lowercased. */
+    private void doWeights(Matcher unused) {
+        Matcher mat = WEIGHTS_FILE.matcher(_command);
+        if (!mat.matches()) {
+            throw error("bad weights command");
+        }
+        setOption("weights", mat.group(1));
+    }
+
+    /** Command "set OPTION VALUE": set the AIs' option OPTION (see
+     *  AI.setOption) to VALUE, e.g. "set lmr off".  VALUE is taken from
+     *  the command as typed, since MAT has been lowercased. */
+    private void doSet(Matcher unused) {
+        Matcher mat = SET_OPTION.matcher(_command);
+        if (!mat.matches()) {
+            throw error("bad set command");
+        }
+        setOption(mat.group(1).toLowerCase(), mat.group(2));
+    }
+
     /** Dump the contents of the board on standard output. */
     private void doDump(Matcher unused) {
         System.out.printf("===%n%s===%n", _board);
@@ -317,12 +668,47 @@ final class Controller {
     /** True while game is still active. */
     private boolean _playing;
 
+    /** Set (from any thread) to end play before the next command. */
+    private volatile boolean _quitRequested;
+
+    /** The automated player searching for a move, or null if none is. */
+    private volatile Player _thinker;
+
     /** The object that is displaying the current game. */
     private View _view;
 
+    /** Time limit per move in milliseconds, or 0 for none. */
+    private long _moveTime;
+
+    /** Milliseconds given to white and black for a game, or -1 if the game
+     *  is untimed. */
+    private long _whiteClock = -1, _blackClock = -1;
+
+    /** Milliseconds left on white's and black's clocks, or -1 if
+     *  untimed. */
+    private long _whiteLeft = -1, _blackLeft = -1;
+
     /** My pseudo-random number generator. */
     private Random _randGen = new Random();
 
+    /** The opening book, or null if none. */
+    private OpeningBook _book;
+
+    /** The endgame tablebase, or null if none. */
+    private Tablebase _tablebase;
+
+    /** The statistics of the last search by an AI, or null if none. */
+    private SearchInfo _lastSearchInfo;
+
+    /** True iff the statistics of every AI search are to be reported. */
+    private boolean _showStats;
+
+    /** File to which search statistics are appended, or null if none. */
+    private PrintStream _statsFile;
+
+    /** The command being executed, as typed, without any comment. */
+    private String _command;
+
     /** Log file, or null if absent. */
     private PrintStream _logFile;
 
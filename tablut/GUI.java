@@ -35,6 +35,7 @@ class GUI extends TopLevel implements View, Reporter {
     /** A new window with given TITLE providing a view of a Tablut board. */
     GUI(String title) {
         super(title, true);
+        addMenuButton("Game->Move now", this::moveNow);
         addMenuButton("Game->Quit", this::quit);
         _widget = new BoardWidget(_pendingCommands);
         add(_widget,
@@ -45,14 +46,32 @@ class GUI extends TopLevel implements View, Reporter {
                  new LayoutSpec("x", 0, "y", 0,
                                 "height", 1,
                                 "width", 3));
+        addLabel(" ", "Search",
+                 new LayoutSpec("x", 0, "y", 2,
+                                "height", 1,
+                                "width", 3));
 
     }
 
-    /** Response to "Quit" button click. */
+    /** Response to "Quit" button click: ends the game, even in the middle
+     *  of an AI's search. */
     private void quit(String dummy) {
+        Controller controller = _controller;
+        if (controller != null) {
+            controller.requestQuit();
+        }
         _pendingCommands.offer("quit");
     }
 
+    /** Response to "Move now" button click: makes an AI that is searching
+     *  for a move play the best move it has found so far. */
+    private void moveNow(String dummy) {
+        Controller controller = _controller;
+        if (controller != null) {
+            controller.moveNow();
+        }
+    }
+
     /** Return the next command from our widget, waiting for it as necessary.
      *  The BoardWidget uses _pendingCommands to queue up moves that it
      *  receives.  Thie class uses _pendingCommands to queue up commands that
@@ -72,7 +91,10 @@ class GUI extends TopLevel implements View, Reporter {
     public void update(Controller controller) {
         Board board = controller.board();
 
+        _controller = controller;
         _widget.update(board);
+        _widget.setBestMove(null);
+        setLabel("Search", " ");
         if (board.winner() != null) {
             setLabel("CurrentTurn",
                      String.format("Winner: %s%s",
@@ -137,9 +159,28 @@ class GUI extends TopLevel implements View, Reporter {
     public void reportMove(Move unused) {
     }
 
+    @Override
+    public void reportSearchInfo(SearchInfo info) {
+        reportNote("%s", info);
+    }
+
+    /** Show INFO's move, depth, and nodes below the board, and highlight
+     *  the move on it. */
+    @Override
+    public void reportProgress(SearchInfo info) {
+        setLabel("Search",
+                 String.format("%s: best so far %s, depth %d, %d nodes",
+                               info.side().toName(), info.move(),
+                               info.depth(), info.nodes()));
+        _widget.setBestMove(info.move());
+    }
+
     /** The board widget. */
     private BoardWidget _widget;
 
+    /** The controller of the game displayed, once known. */
+    private volatile Controller _controller;
+
     /** Queue of pending commands resulting from menu clicks and moves on the
      *  board.  We use a blocking queue because the responses to clicks
      *  on the board and on menus happen in parallel to the methods that
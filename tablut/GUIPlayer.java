@@ -56,6 +56,16 @@ class GUIPlayer extends Player implements Reporter {
     public void reportMove(Move unused) {
     }
 
+    @Override
+    public void reportSearchInfo(SearchInfo info) {
+        _gui.reportSearchInfo(info);
+    }
+
+    @Override
+    public void reportProgress(SearchInfo info) {
+        _gui.reportProgress(info);
+    }
+
     /** The GUI I use for input. */
     private GUI _gui;
 }
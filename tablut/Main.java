@@ -15,15 +15,20 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The main program.  ARGS may contain the option --display, and
+     *  --weights=FILE, giving the weights of the AI's evaluation (see
+     *  Weights).  When a person plays interactively, the AI ponders on
+     *  their time. */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --testing --strict --log={0,1} --={0,2}",
+            new CommandArgs("--display --testing --strict --log={0,1}"
+                            + " --weights={0,1} --={0,2}",
                             args);
         if (!options.ok()) {
             System.err.println("Usage: java tablut.Main [--display]"
-                               + " [--log=FILE] [--strict] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--strict] [--weights=FILE]"
+                               + " [INPUT [OUTPUT]]");
             System.exit(1);
         }
 
@@ -53,9 +58,7 @@ public class Main {
 
         try {
             control.play();
-            if (!options.contains("--display")) {
-                System.exit(0);
-            }
+            System.exit(0);
         } catch (IllegalStateException excp) {
             System.err.printf("Internal error: %s%n", excp.getMessage());
             System.exit(1);
@@ -96,7 +99,15 @@ public class Main {
             }
         }
 
+        AI ai = new AI();
+        if (options.contains("--weights")) {
+            ai.setOption("weights", options.getFirst("--weights"));
+        }
+        if (!options.contains("--testing") && options.get("--").isEmpty()
+            && (options.contains("--display") || System.console() != null)) {
+            ai.setOption("ponder", "on");
+        }
         return new Controller(view, log, reporter, manualPlayer,
-                              new AI(), options.contains("--strict"));
+                              ai, options.contains("--strict"));
     }
 }
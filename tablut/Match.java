@@ -0,0 +1,155 @@
+package tablut;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static tablut.Piece.*;
+import static tablut.Utils.*;
+
+/** Plays a match between two AI configurations, A and B, until a
+ *  sequential probability ratio test (Sprt) decides whether A is
+ *  stronger than B, or until a maximum number of games.  Games are
+ *  played in pairs from the same random opening, A playing white in the
+ *  first game of each pair and black in the second, so that the
+ *  advantage of either side cancels out.  The games are played in
+ *  parallel by SelfPlay, and the test is updated after each one.
+ *  @author Young Hoon Kang
+ */
+class Match {
+
+    /** Default maximum number of games. */
+    private static final int DEFAULT_GAMES = 2000;
+
+    /** The main program.  ARGS are options of the form --NAME=VALUE:
+     *  --a=CONFIG and --b=CONFIG, the configurations of the two AIs as
+     *  for SelfPlay.engine (e.g., "ybwc,threads=2,hash=64"; default
+     *  "smp"); --elo0=ELO and --elo1=ELO (defaults 0 and 20), the
+     *  advantages of A over B under the hypotheses H0 and H1;
+     *  --alpha=P and --beta=P (default 0.05 each), the test's error
+     *  probabilities; --games=N, the most games to play (default 2000);
+     *  and the --threads, --time, --seed, --random, --max-plies, --book,
+     *  --tablebase, and --output options of SelfPlay.  Games are written
+     *  as by SelfPlay, and the state of the test after each game on the
+     *  standard error. */
+    public static void main(String... args) {
+        try {
+            Map<String, String> options = SelfPlay.options(args, "a", "b",
+                "elo0", "elo1", "alpha", "beta", "games", "threads", "time",
+                "seed", "random", "max-plies", "book", "tablebase",
+                "output");
+            Sprt sprt = new Sprt(doubleOption(options, "elo0", 0),
+                                 doubleOption(options, "elo1", 20),
+                                 doubleOption(options, "alpha", 0.05),
+                                 doubleOption(options, "beta", 0.05));
+            SelfPlay selfPlay = new SelfPlay(options);
+            Match match =
+                new Match(SelfPlay.engine(options.getOrDefault("a", "smp")),
+                          SelfPlay.engine(options.getOrDefault("b", "smp")),
+                          SelfPlay.intOption(options, "seed",
+                                             new Random().nextInt(1 << 30),
+                                             0));
+            int games = SelfPlay.intOption(options, "games", DEFAULT_GAMES,
+                                           2);
+            PrintStream out = !options.containsKey("output") ? System.out
+                : new PrintStream(new FileOutputStream(options.get("output")),
+                                  true);
+            out.println(SelfPlay.CSV_HEADER);
+            match.play(selfPlay, sprt, games, result -> {
+                selfPlay.print(result, out);
+                System.err.println(sprt);
+            });
+            switch (sprt.status()) {
+            case 1:
+                System.err.println("H1 accepted: A is stronger.");
+                break;
+            case -1:
+                System.err.println("H0 accepted: A is not stronger.");
+                break;
+            default:
+                System.err.println("No decision.");
+                break;
+            }
+            out.close();
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.println(excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the value of option NAME in OPTIONS as a number, or DEFLT
+     *  if it is absent. */
+    static double doubleOption(Map<String, String> options, String name,
+                               double deflt) {
+        if (!options.containsKey(name)) {
+            return deflt;
+        }
+        try {
+            return Double.parseDouble(options.get(name));
+        } catch (NumberFormatException excp) {
+            throw error("--%s must be a number", name);
+        }
+    }
+
+    /** A match between the AIs created from templates A and B, in which
+     *  games 2K and 2K + 1 are played with the seed SEED + K. */
+    Match(AI a, AI b, long seed) {
+        _a = a;
+        _b = b;
+        _seed = seed;
+    }
+
+    /** Return the side played by A in game number GAME. */
+    static Piece sideOfA(int game) {
+        return game % 2 == 0 ? WHITE : BLACK;
+    }
+
+    /** Return A's score in RESULT: 1 for a win, 0 for a loss, and 0.5 for
+     *  an abandoned game. */
+    static double scoreOfA(SelfPlay.Result result) {
+        if (result.winner() == null) {
+            return 0.5;
+        }
+        return result.winner() == sideOfA(result.game()) ? 1 : 0;
+    }
+
+    /** Play up to GAMES games with SELFPLAY, adding each result to SPRT
+     *  and then passing it to LISTENER, and stopping once SPRT reaches a
+     *  decision.  Games in progress at that point are finished and
+     *  passed to LISTENER, but not added to SPRT.  Returns the results
+     *  in order of game number. */
+    List<SelfPlay.Result> play(SelfPlay selfPlay, Sprt sprt, int games,
+                               SelfPlay.Listener listener) {
+        selfPlay.setName(_a, "A");
+        selfPlay.setName(_b, "B");
+        return selfPlay.play(games, new SelfPlay.Pairing() {
+            @Override
+            public long seed(int game) {
+                return _seed + game / 2;
+            }
+
+            @Override
+            public AI player(int game, Piece side) {
+                return side == sideOfA(game) ? _a : _b;
+            }
+        }, result -> {
+                synchronized (sprt) {
+                    if (sprt.status() == 0) {
+                        sprt.add(scoreOfA(result));
+                        if (sprt.status() != 0) {
+                            selfPlay.stop();
+                        }
+                    }
+                    listener.gameOver(result);
+                }
+            });
+    }
+
+    /** The templates of the two AIs. */
+    private final AI _a, _b;
+    /** The seed of the first pair of games. */
+    private final long _seed;
+}
@@ -51,24 +51,70 @@ final class Move {
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            Square from = sq(_moveMatcher.group(1));
+        Matcher mat = MOVE_PATTERN.matcher(str);
+        if (mat.matches()) {
+            Square from = sq(mat.group(1));
             Square to;
-            if (_moveMatcher.group(5) == null) {
-                to = sq(_moveMatcher.group(4), _moveMatcher.group(3));
+            if (mat.group(5) == null) {
+                to = sq(mat.group(4), mat.group(3));
             } else {
-                to = sq(_moveMatcher.group(2), _moveMatcher.group(5));
+                to = sq(mat.group(2), mat.group(5));
             }
             return mv(from, to);
         }
         return null;
     }
 
+    /** Return the Move whose index() is INDEX. */
+    static Move mv(int index) {
+        return ALL_MOVES[index];
+    }
+
+    /** Return my index: a number in 0 .. NUM_MOVES - 1 that is different
+     *  for every Move, assigned in the order of ROOK_MOVES. */
+    int index() {
+        return _index;
+    }
+
+    /** Return the code of the move from the square with index FROM to the
+     *  one with index TO, with flag bits FLAGS (such as CAPTURE): FROM is
+     *  in bits 0-6, TO in bits 7-13, and FLAGS above.  Codes let moves be
+     *  generated and searched in int arrays without creating objects. */
+    static int code(int from, int to, int flags) {
+        return from | (to << 7) | flags;
+    }
+
+    /** Return the index of the square moved from by the move coded as
+     *  CODE. */
+    static int from(int code) {
+        return code & 0x7f;
+    }
+
+    /** Return the index of the square moved to by the move coded as
+     *  CODE. */
+    static int to(int code) {
+        return (code >>> 7) & 0x7f;
+    }
+
+    /** Return the Move coded as CODE (ignoring its flags), or null if
+     *  CODE is 0 or not a rook move. */
+    static Move decode(int code) {
+        return MOVES[from(code)][to(code)];
+    }
+
+    /** Return the index() of the Move coded as CODE. */
+    static int index(int code) {
+        return decode(code)._index;
+    }
+
+    /** Return my code, with no flags. */
+    int code() {
+        return code(_from.index(), _to.index(), 0);
+    }
+
     /** Return true iff STR has the right format for a Move. */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return MOVE_PATTERN.matcher(str).matches();
     }
 
     @Override
@@ -109,6 +155,9 @@ final class Move {
         return (_from.index() << 6) + _to.index();
     }
 
+    /** Flag bit in the code of a move that captures. */
+    static final int CAPTURE = 1 << 14;
+
     /** The cache of all Moves created. */
     private static final Move[][] MOVES = new Move[NUM_SQUARES][NUM_SQUARES];
 
@@ -118,14 +167,25 @@ final class Move {
      *  square i. */
     static final MoveList[][] ROOK_MOVES = new MoveList[NUM_SQUARES][4];
 
+    /** The number of distinct Moves. */
+    static final int NUM_MOVES = NUM_SQUARES * 2 * (Square.BOARD_SIZE - 1);
+
+    /** All Moves, by index(). */
+    private static final Move[] ALL_MOVES = new Move[NUM_MOVES];
+
     static {
+        int k = 0;
         for (Square sq0 : SQUARE_LIST) {
             int r0 = sq0.row(), c0 = sq0.col(), i0 = sq0.index();
             for (int d = 0; d < 4; d += 1) {
                 MoveList L;
                 L = ROOK_MOVES[i0][d] = new MoveList();
                 for (Square sq1 : ROOK_SQUARES[i0][d]) {
-                    L.add(mv(sq0, sq1));
+                    Move m = mv(sq0, sq1);
+                    m._index = k;
+                    ALL_MOVES[k] = m;
+                    k += 1;
+                    L.add(m);
                 }
             }
         }
@@ -133,8 +193,8 @@ final class Move {
 
     /** The components of this Move. */
     private final Square _from, _to;
+    /** My index, as for index(). */
+    private int _index;
     /** The printed form of this Move. */
     private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
 }
@@ -0,0 +1,27 @@
+package tablut;
+
+/** A Reporter that does nothing.
+ *  @author Young Hoon Kang
+ */
+class NullReporter implements Reporter {
+
+    @Override
+    public void reportError(String format, Object... args) {
+    }
+
+    @Override
+    public void reportNote(String format, Object... args) {
+    }
+
+    @Override
+    public void reportMove(Move move) {
+    }
+
+    @Override
+    public void reportSearchInfo(SearchInfo info) {
+    }
+
+    @Override
+    public void reportProgress(SearchInfo info) {
+    }
+}
@@ -0,0 +1,257 @@
+package tablut;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntUnaryOperator;
+
+import static tablut.Utils.*;
+
+/** A read-only opening book: a file of records (KEY, MOVE, WEIGHT, SCORE)
+ *  sorted by KEY, the hashKey() of the position in which MOVE was played.
+ *  After a header of HEADER_SIZE bytes (MAGIC followed by the number of
+ *  records), each record takes RECORD_SIZE bytes: the key (8 bytes), the
+ *  code of the move without flags (2 bytes), its weight as an unsigned
+ *  number (2 bytes), and its score for white (4 bytes), all big-endian.
+ *  Records with equal keys are sorted by move.  The file is mapped into
+ *  memory and searched by bisection, so that a lookup touches only a few
+ *  pages and no heap storage grows with the size of the book.
+ *  @author Young Hoon Kang
+ */
+class OpeningBook {
+
+    /** The first eight bytes of a book file ("TABLBOOK"). */
+    static final long MAGIC = 0x5441424C424F4F4BL;
+    /** The sizes in bytes of the header and of each record. */
+    static final int HEADER_SIZE = 16, RECORD_SIZE = 16;
+    /** The largest weight a record can hold. */
+    static final int MAX_WEIGHT = 0xffff;
+
+    /** The main program.  ARGS are OUTPUT [ INPUT ].  Writes a book to
+     *  the file OUTPUT from the lines of INPUT (default the standard
+     *  input), each a sequence of moves from the initial position,
+     *  optionally followed by "; SCORE" giving the value of the line for
+     *  white.  Every move in a line adds 1 to the weight of its record.
+     *  Text after "#" is ignored. */
+    public static void main(String... args) {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java tablut.OpeningBook OUTPUT"
+                               + " [INPUT]");
+            System.exit(1);
+        }
+        Builder builder = new Builder();
+        try (Reader input = args.length == 1
+                 ? new InputStreamReader(System.in)
+                 : new FileReader(args[1])) {
+            BufferedReader lines = new BufferedReader(input);
+            for (String line = lines.readLine(); line != null;
+                 line = lines.readLine()) {
+                builder.addLine(line);
+            }
+            builder.write(new File(args[0]));
+            System.out.printf("%d records%n", builder.size());
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.println(excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the book in FILE, mapped into memory. */
+    static OpeningBook open(File file) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(file + ": not an opening book");
+            }
+            ByteBuffer buffer =
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buffer.getLong(0) != MAGIC
+                || buffer.getLong(8) != (size - HEADER_SIZE) / RECORD_SIZE
+                || (size - HEADER_SIZE) % RECORD_SIZE != 0) {
+                throw new IOException(file + ": not an opening book");
+            }
+            return new OpeningBook(buffer);
+        }
+    }
+
+    /** A book whose contents are in BUFFER. */
+    private OpeningBook(ByteBuffer buffer) {
+        _buffer = buffer;
+        _size = (int) buffer.getLong(8);
+    }
+
+    /** Return the number of records in me. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of the first record with key KEY, or -1 if
+     *  there is none. */
+    int find(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo < _size && key(lo) == key ? lo : -1;
+    }
+
+    /** Return the key of record K. */
+    long key(int k) {
+        return _buffer.getLong(HEADER_SIZE + k * RECORD_SIZE);
+    }
+
+    /** Return the move code of record K. */
+    int move(int k) {
+        return _buffer.getShort(HEADER_SIZE + k * RECORD_SIZE + 8)
+            & 0xffff;
+    }
+
+    /** Return the weight of record K. */
+    int weight(int k) {
+        return _buffer.getShort(HEADER_SIZE + k * RECORD_SIZE + 10)
+            & 0xffff;
+    }
+
+    /** Return the score for white of record K. */
+    int score(int k) {
+        return _buffer.getInt(HEADER_SIZE + k * RECORD_SIZE + 12);
+    }
+
+    /** Return a move from my records for BOARD's position, chosen at
+     *  random in proportion to the records' weights, or null if there is
+     *  none.  RANDOM.applyAsInt(N) must return a random integer in
+     *  0 .. N-1, such as Controller.randInt.  Records whose moves are
+     *  illegal in BOARD (from colliding keys) are ignored. */
+    Move choose(Board board, IntUnaryOperator random) {
+        long key = board.hashKey();
+        int first = find(key);
+        if (first < 0) {
+            return null;
+        }
+        int total = 0, end;
+        for (end = first; end < _size && key(end) == key; end += 1) {
+            if (usable(board, end)) {
+                total += weight(end);
+            }
+        }
+        if (total == 0) {
+            return null;
+        }
+        int pick = random.applyAsInt(total);
+        for (int k = first; k < end; k += 1) {
+            if (usable(board, k)) {
+                pick -= weight(k);
+                if (pick < 0) {
+                    return Move.decode(move(k));
+                }
+            }
+        }
+        throw new AssertionError("weights changed during choice");
+    }
+
+    /** Return true iff record K holds a legal move in BOARD with a
+     *  positive weight. */
+    private boolean usable(Board board, int k) {
+        Move move = Move.decode(move(k));
+        return weight(k) > 0 && move != null && board.isLegal(move);
+    }
+
+    /** Collects records and writes them as a book file. */
+    static class Builder {
+
+        /** Return the number of distinct records added. */
+        int size() {
+            int n = 0;
+            for (Map<Integer, int[]> moves : _records.values()) {
+                n += moves.size();
+            }
+            return n;
+        }
+
+        /** Add WEIGHT to the weight of the record for MOVE in the position
+         *  with hash key KEY, setting its score to SCORE. */
+        void add(long key, Move move, int weight, int score) {
+            int[] record =
+                _records.computeIfAbsent(key, k -> new TreeMap<>())
+                .computeIfAbsent(move.code(), m -> new int[2]);
+            record[0] = Math.min(MAX_WEIGHT, record[0] + weight);
+            record[1] = score;
+        }
+
+        /** Add the moves of LINE, in the format described for main, each
+         *  with weight 1. */
+        void addLine(String line) {
+            line = line.replaceFirst("#.*", "");
+            String[] parts = line.split(";", 2);
+            int score = 0;
+            if (parts.length == 2) {
+                try {
+                    score = Integer.parseInt(parts[1].trim());
+                } catch (NumberFormatException excp) {
+                    throw error("bad score: %s", parts[1].trim());
+                }
+            }
+            Board board = new Board();
+            for (String word : parts[0].trim().split("\\s+")) {
+                if (word.isEmpty()) {
+                    continue;
+                }
+                Move move = Move.isGrammaticalMove(word) ? Move.mv(word)
+                    : null;
+                if (move == null || board.winner() != null
+                    || !board.isLegal(move)) {
+                    throw error("illegal book move: %s", word);
+                }
+                add(board.hashKey(), move, 1, score);
+                board.makeMove(move);
+            }
+        }
+
+        /** Write my records to FILE in book format. */
+        void write(File file) throws IOException {
+            try (DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(
+                     new FileOutputStream(file)))) {
+                out.writeLong(MAGIC);
+                out.writeLong(size());
+                for (Map.Entry<Long, TreeMap<Integer, int[]>> position
+                         : _records.entrySet()) {
+                    for (Map.Entry<Integer, int[]> record
+                             : position.getValue().entrySet()) {
+                        out.writeLong(position.getKey());
+                        out.writeShort(record.getKey());
+                        out.writeShort(record.getValue()[0]);
+                        out.writeInt(record.getValue()[1]);
+                    }
+                }
+            }
+        }
+
+        /** Maps each key to a map from the codes of its moves to their
+         *  weights and scores. */
+        private final TreeMap<Long, TreeMap<Integer, int[]>> _records =
+            new TreeMap<>();
+    }
+
+    /** The contents of the book file. */
+    private final ByteBuffer _buffer;
+    /** The number of records. */
+    private final int _size;
+}
@@ -0,0 +1,313 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static java.lang.Math.*;
+
+import static tablut.Piece.*;
+
+/** An AI that searches in parallel by the Young Brothers Wait Concept.
+ *  At each node deep enough to be worth splitting, the first (eldest)
+ *  move is searched alone.  If it does not cause a cutoff, the remaining
+ *  moves are searched as parallel tasks on a ForkJoinPool, with the window
+ *  narrowed by the eldest brother's value, and any tasks still running
+ *  when one of them causes a cutoff are cancelled.  Nodes near the leaves
+ *  are searched serially by AI.findMove.  The "threads" option gives the
+ *  size of the pool.
+ *  @author Young Hoon Kang
+ */
+class ParallelAI extends AI {
+
+    /** Nodes with fewer than this many plies to search are searched
+     *  serially. */
+    private static final int MIN_SPLIT_DEPTH = 3;
+
+    /** A new ParallelAI with no piece or controller (intended to produce
+     *  a template). */
+    ParallelAI() {
+        this(null, null);
+    }
+
+    /** A new ParallelAI playing PIECE under control of CONTROLLER. */
+    ParallelAI(Piece piece, Controller controller) {
+        super(piece, controller);
+    }
+
+    @Override
+    Player create(Piece piece, Controller controller) {
+        ParallelAI result = new ParallelAI(piece, controller);
+        result.copyOptions(this);
+        return result;
+    }
+
+    @Override
+    void startHelpers(Board board) {
+        if (_pool == null || _pool.getParallelism() != _threads) {
+            if (_pool != null) {
+                _pool.shutdown();
+            }
+            _pool = new ForkJoinPool(_threads);
+            _allLeaves.clear();
+        }
+        _timedOut = false;
+    }
+
+    @Override
+    void release() {
+        super.release();
+        if (_pool != null) {
+            _pool.shutdown();
+            _pool = null;
+        }
+        _allLeaves.clear();
+    }
+
+    @Override
+    void stopHelpers() {
+    }
+
+    @Override
+    int searchRoot(Board board, int depth, int sense, int alpha, int beta) {
+        SplitTask root =
+            new SplitTask(board, depth, sense, alpha, beta, null);
+        int score = _pool.invoke(root);
+        for (Leaf leaf : _allLeaves) {
+            takeCounts(leaf);
+        }
+        _stopped = _timedOut;
+        _lastFoundMove = root._bestMove;
+        return score;
+    }
+
+    /** A search of one node, which either splits its moves among
+     *  subtasks or searches them serially. */
+    private class SplitTask extends RecursiveTask<Integer> {
+
+        /** A task searching BOARD, which it then owns, to DEPTH plies for
+         *  the side indicated by SENSE (as for AI.findMove), with window
+         *  ALPHA .. BETA.  PARENT is the task that created me, or null at
+         *  the root. */
+        SplitTask(Board board, int depth, int sense, int alpha, int beta,
+                  SplitTask parent) {
+            _board = board;
+            _depth = depth;
+            _sense = sense;
+            _alpha = alpha;
+            _beta = beta;
+            _parent = parent;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (_parent != null
+                && (_depth < MIN_SPLIT_DEPTH || _board.winner() != null)) {
+                return serialSearch(_board, _depth, _sense, _alpha, _beta);
+            }
+            Leaf leaf = _leaves.get();
+            leaf._nodes += 1;
+            long key = _board.hashKey();
+            long entry = _table.probe(key);
+            if (entry != 0 && _parent != null
+                && TranspositionTable.depth(entry) >= _depth) {
+                int score = searchScore(TranspositionTable.score(entry),
+                                        _searchDepth - _depth);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT
+                    || bound == TranspositionTable.LOWER && score >= _beta
+                    || bound == TranspositionTable.UPPER
+                       && score <= _alpha) {
+                    return score;
+                }
+            }
+            Piece side = _sense == 1 ? WHITE : BLACK;
+            int[] moves = new int[Board.MAX_MOVES],
+                scores = new int[Board.MAX_MOVES];
+            int n = _board.legalMoves(side, moves, 0);
+            int ply = _searchDepth - _depth;
+            leaf.scoreMoves(_board, moves, n, TranspositionTable.move(entry),
+                            ply, side, scores);
+            for (int i = 0; i < n; i += 1) {
+                pickMove(moves, scores, n, i);
+            }
+            int alpha = _alpha, beta = _beta;
+            _best = -_sense * INFTY;
+
+            int eldest = moves[0];
+            _board.makeMove(eldest);
+            int eval = new SplitTask(_board, _depth - 1, -_sense,
+                                     alpha, beta, this).compute();
+            _board.undo();
+            if (aborted()) {
+                return 0;
+            }
+            record(eldest, eval);
+            if (_sense == 1) {
+                alpha = max(alpha, eval);
+            } else {
+                beta = min(beta, eval);
+            }
+            if (beta <= alpha) {
+                leaf.countCutoff(0);
+                leaf.noteCutoff(_board, eldest, ply, _depth, side);
+            }
+
+            List<SplitTask> brothers = new ArrayList<>();
+            if (alpha < beta) {
+                for (int i = 1; i < n; i += 1) {
+                    Board child = new Board(_board);
+                    child.makeMove(moves[i]);
+                    SplitTask task = new SplitTask(child, _depth - 1,
+                                                   -_sense, alpha, beta,
+                                                   this);
+                    task._move = moves[i];
+                    brothers.add(task);
+                    task.fork();
+                }
+            }
+            boolean cutoff = false;
+            for (SplitTask task : brothers) {
+                if (cutoff) {
+                    task._cancelled = true;
+                    task.cancel(false);
+                    task.quietlyJoin();
+                    continue;
+                }
+                eval = task.join();
+                if (aborted()) {
+                    cutoff = true;
+                    continue;
+                }
+                record(task._move, eval);
+                if (_sense == 1) {
+                    alpha = max(alpha, eval);
+                } else {
+                    beta = min(beta, eval);
+                }
+                cutoff = beta <= alpha;
+                if (cutoff) {
+                    leaf.countCutoff(1);
+                    leaf.noteCutoff(_board, task._move, ply, _depth, side);
+                }
+            }
+            if (aborted()) {
+                return 0;
+            }
+            int bound = _best <= _alpha ? TranspositionTable.UPPER
+                : _best >= _beta ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+            _table.store(key, _depth, tableScore(_best, _searchDepth - _depth),
+                         bound, _bestMove);
+            return _best;
+        }
+
+        /** Note that the move coded as MOVE has value EVAL, updating my
+         *  best move. */
+        private void record(int move, int eval) {
+            if (_bestMove == null || _sense * eval > _sense * _best) {
+                _best = eval;
+                _bestMove = Move.decode(move);
+            }
+        }
+
+        /** Return true iff my result is no longer needed: I or one of my
+         *  ancestors has been cancelled, or the whole search has been
+         *  stopped. */
+        boolean aborted() {
+            if (_timedOut) {
+                return true;
+            }
+            for (SplitTask t = this; t != null; t = t._parent) {
+                if (t._cancelled) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Search BOARD serially to DEPTH plies for the side indicated by
+         *  SENSE, with window ALPHA .. BETA, and return its value. */
+        private int serialSearch(Board board, int depth, int sense,
+                                 int alpha, int beta) {
+            Leaf leaf = _leaves.get();
+            leaf.start(this, board);
+            int score = leaf.findMove(board, depth, false, sense, alpha, beta);
+            return leaf._stopped ? 0 : score;
+        }
+
+        /** The position I search. */
+        private final Board _board;
+        /** The number of plies to search, and the side to move there. */
+        private final int _depth, _sense;
+        /** The window within which my value is needed. */
+        private final int _alpha, _beta;
+        /** The task that created me, or null at the root. */
+        private final SplitTask _parent;
+        /** The code of the move that led to my position from my
+         *  parent's. */
+        private int _move;
+        /** True when my result is no longer needed. */
+        private volatile boolean _cancelled;
+        /** The best value found so far, and the move leading to it. */
+        private int _best;
+        /** The move leading to _best. */
+        private Move _bestMove;
+    }
+
+    /** A serial searcher for the subtrees of SplitTasks, which stops when
+     *  its task is cancelled or the whole search is stopped.  Each pool
+     *  thread reuses one Leaf, which also counts the nodes and cutoffs of
+     *  the SplitTasks computed on that thread and holds the killer moves
+     *  used by them and by its own searches, so that no two threads share
+     *  killers.  Leaves share my history and counter-move tables, whose
+     *  unsynchronized updates may race; a lost update only weakens the
+     *  move ordering. */
+    private class Leaf extends AI {
+
+        /** A searcher for my tasks' subtrees. */
+        Leaf() {
+            super(ParallelAI.this._myPiece, ParallelAI.this._controller);
+            makeOrderingTables(ParallelAI.this);
+            _allLeaves.add(this);
+        }
+
+        /** Prepare to search BOARD, the subtree of TASK, numbering its
+         *  plies from the root of the whole search. */
+        void start(SplitTask task, Board board) {
+            _task = task;
+            _table = ParallelAI.this._table;
+            _tablebase = ParallelAI.this._tablebase;
+            copySearchOptions(ParallelAI.this);
+            _searchDepth = ParallelAI.this._searchDepth;
+            _deadline = ParallelAI.this._deadline;
+            _stopped = false;
+            _rootMoveCount = board.moveCount() - (_searchDepth - task._depth);
+        }
+
+        @Override
+        boolean shouldStop() {
+            if (ParallelAI.this.shouldStop()) {
+                _timedOut = true;
+            }
+            return _task.aborted();
+        }
+
+        /** The task whose subtree I search. */
+        private SplitTask _task;
+    }
+
+    /** True iff the current search has run out of time or been stopped. */
+    private volatile boolean _timedOut;
+    /** All Leaf searchers of the current pool, whose search counters are
+     *  collected after each iteration. */
+    private final Queue<Leaf> _allLeaves = new ConcurrentLinkedQueue<>();
+    /** The Leaf searcher of each pool thread. */
+    private final ThreadLocal<Leaf> _leaves =
+        ThreadLocal.withInitial(() -> new Leaf());
+    /** The threads that carry out the search. */
+    private ForkJoinPool _pool;
+}
@@ -0,0 +1,181 @@
+package tablut;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static tablut.Utils.*;
+
+/** Counts the positions at the leaves of the game tree to a given depth
+ *  ("perft"), to check and time move generation.  A position in which the
+ *  game is over has no successors, so its subtree contributes no leaves
+ *  deeper than itself.
+ *  @author Young Hoon Kang
+ */
+class Perft {
+
+    /** The largest depth that may be searched. */
+    static final int MAX_DEPTH = 64;
+
+    /** The main program.  ARGS are [ -t THREADS ] DEPTH [ SQUARE=PIECE ... ],
+     *  where each SQUARE=PIECE (such as e5=E or a4=B, using the
+     *  toString of a Piece) changes the initial position, as for the
+     *  "toggle" command.  Prints the count for each root move and the
+     *  total, with the rate in nodes per second. */
+    public static void main(String... args) {
+        int threads = 1, k = 0;
+        try {
+            if (args.length > k + 1 && args[k].equals("-t")) {
+                threads = Integer.parseInt(args[k + 1]);
+                k += 2;
+            }
+            int depth = Integer.parseInt(args[k]);
+            Board board = new Board();
+            for (k += 1; k < args.length; k += 1) {
+                setUp(board, args[k]);
+            }
+            run(board, depth, threads, System.out);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: java tablut.Perft [ -t THREADS ] DEPTH"
+                               + " [ SQUARE=PIECE ... ]");
+            System.exit(1);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Modify BOARD as directed by SETUP, which has the form SQUARE=PIECE,
+     *  and clear its undo history. */
+    private static void setUp(Board board, String setup) {
+        String[] parts = setup.split("=");
+        if (parts.length != 2 || !parts[0].matches(Square.SQ)) {
+            throw error("bad setup: %s", setup);
+        }
+        for (Piece p : Piece.values()) {
+            if (p.toString().equals(parts[1])) {
+                board.put(p, Square.sq(parts[0]));
+                board.clearUndo();
+                return;
+            }
+        }
+        throw error("bad piece: %s", parts[1]);
+    }
+
+    /** Count the leaves of BOARD's game tree to DEPTH plies, searching the
+     *  root moves with THREADS threads, and print the count for each root
+     *  move (sorted by name), the total, and the rate to OUT.  Returns the
+     *  total. */
+    static long run(Board board, int depth, int threads, PrintStream out) {
+        long start = System.nanoTime();
+        List<Move> moves = new ArrayList<>();
+        long[] counts = divide(board, depth, threads, moves);
+        double seconds = (System.nanoTime() - start) * 1e-9;
+        long total = 0;
+        Integer[] order = new Integer[moves.size()];
+        for (int i = 0; i < order.length; i += 1) {
+            order[i] = i;
+            total += counts[i];
+        }
+        Arrays.sort(order,
+                    Comparator.comparing(i -> moves.get(i).toString()));
+        for (int i : order) {
+            out.printf("%s: %d%n", moves.get(i), counts[i]);
+        }
+        if (moves.isEmpty()) {
+            total = count(board, depth);
+        }
+        out.printf("Moves: %d  Nodes: %d  Time: %.3f s  Nodes/s: %.0f%n",
+                   moves.size(), total, seconds, total / seconds);
+        return total;
+    }
+
+    /** Return the number of leaves of BOARD's game tree at depth DEPTH
+     *  following each legal move of the side to move, having cleared
+     *  MOVES and filled it with those moves.  Uses THREADS threads, each
+     *  root move being a separate task.  There are no moves if DEPTH is 0
+     *  or the game is over. */
+    static long[] divide(Board board, int depth, int threads,
+                         List<Move> moves) {
+        moves.clear();
+        if (depth > 0 && board.winner() == null) {
+            moves.addAll(board.legalMoves(board.turn()));
+        }
+        long[] result = new long[moves.size()];
+        Perft perft = new Perft(depth);
+        if (threads <= 1) {
+            for (int i = 0; i < result.length; i += 1) {
+                board.makeMove(moves.get(i));
+                result[i] = perft.count(board, depth - 1, 0);
+                board.undo();
+            }
+            return result;
+        }
+        List<RecursiveTask<Long>> tasks = new ArrayList<>();
+        for (Move move : moves) {
+            Board child = new Board(board);
+            child.makeMove(move);
+            tasks.add(new RecursiveTask<Long>() {
+                @Override
+                protected Long compute() {
+                    return new Perft(depth).count(child, depth - 1, 0);
+                }
+            });
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            for (RecursiveTask<Long> task : tasks) {
+                pool.execute(task);
+            }
+            for (int i = 0; i < result.length; i += 1) {
+                result[i] = tasks.get(i).join();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /** Return the number of leaves of BOARD's game tree at depth DEPTH,
+     *  counted serially.  BOARD is unchanged on return. */
+    static long count(Board board, int depth) {
+        return new Perft(depth).count(board, depth, 0);
+    }
+
+    /** A counter able to search to DEPTH plies. */
+    private Perft(int depth) {
+        if (depth < 0 || depth > MAX_DEPTH) {
+            throw error("depth must be between 0 and %d", MAX_DEPTH);
+        }
+        _moves = new int[depth + 1][Board.MAX_MOVES];
+    }
+
+    /** Return the number of leaves of BOARD's game tree at depth DEPTH,
+     *  using my move buffer for ply PLY and beyond. */
+    private long count(Board board, int depth, int ply) {
+        if (depth == 0) {
+            return 1;
+        } else if (board.winner() != null) {
+            return 0;
+        }
+        int[] moves = _moves[ply];
+        int n = board.legalMoves(board.turn(), moves, 0);
+        if (depth == 1) {
+            return n;
+        }
+        long total = 0;
+        for (int i = 0; i < n; i += 1) {
+            board.makeMove(moves[i]);
+            total += count(board, depth - 1, ply + 1);
+            board.undo();
+        }
+        return total;
+    }
+
+    /** Move buffers for each ply. */
+    private final int[][] _moves;
+}
@@ -39,6 +39,32 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Set my option NAME (one of the engine settings that Controller
+     *  commands adjust) to VALUE.  Players without such an option ignore
+     *  it. */
+    void setOption(String name, String value) {
+    }
+
+    /** Stop searching for the move that myMove is to return, and return
+     *  the best one found so far.  May be called from any thread.  Players
+     *  that do not search ignore this. */
+    void moveNow() {
+    }
+
+    /** Start thinking, in the background, while my opponent considers
+     *  its move from POSITION.  Players that do not ponder ignore this. */
+    void startPondering(Board position) {
+    }
+
+    /** Stop any thinking started by startPondering. */
+    void stopPondering() {
+    }
+
+    /** Release the resources, such as threads, that I hold, since I will
+     *  not be used again.  Players that hold none ignore this. */
+    void release() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
@@ -16,5 +16,13 @@ interface Reporter {
     /** Display MOVE as needed. */
     void reportMove(Move move);
 
+    /** Display INFO, the statistics of a search by an AI, as needed. */
+    void reportSearchInfo(SearchInfo info);
+
+    /** Display INFO, the statistics of the iterations finished so far by
+     *  a search that is still in progress, as needed.  Called from the
+     *  searching thread. */
+    void reportProgress(SearchInfo info);
+
 }
 
@@ -0,0 +1,121 @@
+package tablut;
+
+/** Statistics of one search by an AI for a move.
+ *  @author Young Hoon Kang
+ */
+class SearchInfo {
+
+    /** Column names for the lines produced by toCSV. */
+    static final String CSV_HEADER =
+        "side,move,depth,nodes,leaf_evals,beta_cutoffs,first_move_cutoffs,"
+        + "first_move_cutoff_rate,branching_factor,millis,nodes_per_second";
+
+    /** Statistics for a search by SIDE that chose MOVE after completing
+     *  DEPTH plies, having visited NODES nodes, evaluated LEAFEVALS
+     *  positions statically, and cut off BETACUTOFFS nodes,
+     *  FIRSTMOVECUTOFFS of them on their first move, in MILLIS
+     *  milliseconds. */
+    SearchInfo(Piece side, Move move, int depth, long nodes, long leafEvals,
+               long betaCutoffs, long firstMoveCutoffs, long millis) {
+        _side = side;
+        _move = move;
+        _depth = depth;
+        _nodes = nodes;
+        _leafEvals = leafEvals;
+        _betaCutoffs = betaCutoffs;
+        _firstMoveCutoffs = firstMoveCutoffs;
+        _millis = millis;
+    }
+
+    /** Return the side that searched. */
+    Piece side() {
+        return _side;
+    }
+
+    /** Return the move chosen. */
+    Move move() {
+        return _move;
+    }
+
+    /** Return the depth of the deepest completed iteration. */
+    int depth() {
+        return _depth;
+    }
+
+    /** Return the number of nodes visited. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the number of static evaluations. */
+    long leafEvals() {
+        return _leafEvals;
+    }
+
+    /** Return the number of nodes cut off by a move. */
+    long betaCutoffs() {
+        return _betaCutoffs;
+    }
+
+    /** Return the number of nodes cut off by their first move. */
+    long firstMoveCutoffs() {
+        return _firstMoveCutoffs;
+    }
+
+    /** Return the fraction of cutoffs caused by the first move tried (0
+     *  if there were none), a measure of move ordering. */
+    double firstMoveCutoffRate() {
+        return _betaCutoffs == 0 ? 0.0
+            : (double) _firstMoveCutoffs / _betaCutoffs;
+    }
+
+    /** Return the effective branching factor: the number B such that a
+     *  uniform tree of depth depth() and branching factor B has nodes()
+     *  nodes. */
+    double branchingFactor() {
+        return _depth == 0 ? 0.0 : Math.pow(_nodes, 1.0 / _depth);
+    }
+
+    /** Return the elapsed time in milliseconds. */
+    long millis() {
+        return _millis;
+    }
+
+    /** Return the number of nodes visited per second. */
+    long nodesPerSecond() {
+        return _millis == 0 ? 0 : _nodes * 1000 / _millis;
+    }
+
+    /** Return my statistics as a line in the format described by
+     *  CSV_HEADER. */
+    String toCSV() {
+        return String.format("%s,%s,%d,%d,%d,%d,%d,%.4f,%.3f,%d,%d",
+                             _side.toName(), _move, _depth, _nodes,
+                             _leafEvals, _betaCutoffs, _firstMoveCutoffs,
+                             firstMoveCutoffRate(), branchingFactor(),
+                             _millis, nodesPerSecond());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s: depth %d, %d nodes (%d leaves) in %d ms"
+                             + " (%d nodes/s), %d cutoffs (%.1f%% first"
+                             + " move), branching factor %.2f",
+                             _side.toName(), _move, _depth, _nodes,
+                             _leafEvals, _millis, nodesPerSecond(),
+                             _betaCutoffs, 100 * firstMoveCutoffRate(),
+                             branchingFactor());
+    }
+
+    /** The side that searched. */
+    private final Piece _side;
+    /** The move chosen. */
+    private final Move _move;
+    /** The depth of the deepest completed iteration. */
+    private final int _depth;
+    /** Counts of nodes, static evaluations, cutoffs, and cutoffs by the
+     *  first move. */
+    private final long _nodes, _leafEvals, _betaCutoffs, _firstMoveCutoffs;
+    /** The elapsed time in milliseconds. */
+    private final long _millis;
+}
@@ -0,0 +1,456 @@
+package tablut;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static tablut.Piece.*;
+import static tablut.Utils.*;
+
+/** Plays games between AIs with no display, several at once, for testing
+ *  changes to the AI.  Each thread has its own Controller (with a
+ *  NullView and NullReporter, used only for the AIs' settings) and its
+ *  own AIs, which it reuses from game to game, and plays each game on its
+ *  own Board.  Game I uses the seed SEED + I, both for its random opening
+ *  moves and for the Controller's randInt (which chooses book moves), so
+ *  that a set of games can be replayed from the same openings.  The
+ *  result of each game is written as soon as it is over, as a line of
+ *  comma-separated values in the format of CSV_HEADER.
+ *  @author Young Hoon Kang
+ */
+class SelfPlay {
+
+    /** Column names for the lines produced by Result.toCSV.  The moves
+     *  and the milliseconds taken by each are separated by spaces. */
+    static final String CSV_HEADER =
+        "game,seed,white,black,winner,plies,millis,moves,move_millis";
+
+    /** Default numbers of games, milliseconds per move, random opening
+     *  plies, and plies after which a game is abandoned. */
+    private static final int DEFAULT_GAMES = 100, DEFAULT_MOVE_TIME = 50,
+        DEFAULT_RANDOM_PLIES = 4, DEFAULT_MAX_PLIES = 400;
+
+    /** The main program.  ARGS are options of the form --NAME=VALUE:
+     *  --games=N (default 100), --threads=N (default one per processor),
+     *  --time=MILLISECONDS per move (default 50), --seed=N (default
+     *  random), --random=PLIES of random opening moves (default 4),
+     *  --max-plies=N before a game is abandoned (default 400),
+     *  --engine=smp|ybwc, --hash=MEGABYTES, --book=FILE,
+     *  --tablebase=FILE, and --output=FILE (default the standard
+     *  output).  A summary is printed on the standard error. */
+    public static void main(String... args) {
+        try {
+            Map<String, String> options = options(args, "games", "threads",
+                "time", "seed", "random", "max-plies", "engine", "hash",
+                "book", "tablebase", "output");
+            SelfPlay selfPlay = new SelfPlay(options);
+            AI engine = engine(options.getOrDefault("engine", "smp")
+                               + (options.containsKey("hash")
+                                  ? ",hash=" + options.get("hash") : ""));
+            int games = intOption(options, "games", DEFAULT_GAMES, 1);
+            long seed = intOption(options, "seed",
+                                  new Random().nextInt(1 << 30), 0);
+            PrintStream out = !options.containsKey("output") ? System.out
+                : new PrintStream(new FileOutputStream(options.get("output")),
+                                  true);
+            out.println(CSV_HEADER);
+            long start = System.nanoTime();
+            List<Result> results =
+                selfPlay.play(games, seed, engine, engine,
+                              result -> selfPlay.print(result, out));
+            System.err.println(summary(results, System.nanoTime() - start));
+            out.close();
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.println(excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the options in ARGS, each of the form --NAME=VALUE where NAME
+     *  is one of NAMES, as a map from NAME to VALUE. */
+    static Map<String, String> options(String[] args, String... names) {
+        Map<String, String> result = new HashMap<>();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            if (eq < 0 || !name.startsWith("--")
+                || !Arrays.asList(names).contains(name.substring(2))) {
+                throw error("unknown option: %s", arg);
+            }
+            result.put(name.substring(2), arg.substring(eq + 1));
+        }
+        return result;
+    }
+
+    /** Return the value of option NAME in OPTIONS as an integer at least
+     *  LOW, or DEFLT if it is absent. */
+    static int intOption(Map<String, String> options, String name,
+                         int deflt, int low) {
+        if (!options.containsKey(name)) {
+            return deflt;
+        }
+        try {
+            int result = Integer.parseInt(options.get(name));
+            if (result >= low) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through to the error below. */
+        }
+        throw error("--%s must be an integer of at least %d", name, low);
+    }
+
+    /** Return a template for the AI described by CONFIG, a
+     *  comma-separated list of settings, each either the kind of engine
+     *  ("smp", the default, or "ybwc") or NAME=VALUE, setting the AI's
+     *  option NAME (as set by the Controller's commands, e.g. "hash" or
+     *  "threads") to VALUE.  Settings are applied from left to right. */
+    static AI engine(String config) {
+        AI result = new AI();
+        List<String[]> settings = new ArrayList<>();
+        for (String setting : config.split(",")) {
+            setting = setting.trim();
+            switch (setting) {
+            case "smp":
+                result = new AI();
+                break;
+            case "ybwc":
+                result = new ParallelAI();
+                break;
+            default:
+                int eq = setting.indexOf('=');
+                if (eq <= 0) {
+                    throw error("bad engine setting: %s", setting);
+                }
+                settings.add(new String[] { setting.substring(0, eq).trim(),
+                                            setting.substring(eq + 1).trim()
+                    });
+                break;
+            }
+        }
+        for (String[] setting : settings) {
+            result.setOption(setting[0], setting[1]);
+        }
+        return result;
+    }
+
+    /** A runner of games as described by OPTIONS (see main). */
+    SelfPlay(Map<String, String> options) throws IOException {
+        _threads = intOption(options, "threads",
+                             Runtime.getRuntime().availableProcessors(), 1);
+        _moveTime = intOption(options, "time", DEFAULT_MOVE_TIME, 1);
+        _randomPlies =
+            intOption(options, "random", DEFAULT_RANDOM_PLIES, 0);
+        _maxPlies = intOption(options, "max-plies", DEFAULT_MAX_PLIES, 1);
+        if (options.containsKey("book")) {
+            _book = OpeningBook.open(new File(options.get("book")));
+        }
+        if (options.containsKey("tablebase")) {
+            _tablebase = Tablebase.open(new File(options.get("tablebase")));
+        }
+    }
+
+    /** Something to be done with the result of each game as it ends. */
+    interface Listener {
+        /** Handle RESULT.  May be called from several threads at once. */
+        void gameOver(Result result);
+    }
+
+    /** Chooses the seed and the players of each game. */
+    interface Pairing {
+        /** Return the seed of game number GAME. */
+        long seed(int game);
+
+        /** Return the template of the AI playing SIDE in game number
+         *  GAME. */
+        AI player(int game, Piece side);
+    }
+
+    /** Play GAMES games in parallel, the Ith with seed SEED + I, between
+     *  AIs created from WHITE and from BLACK, passing each result to
+     *  LISTENER as it ends.  Returns the results in order of game
+     *  number. */
+    List<Result> play(int games, long seed, AI white, AI black,
+                      Listener listener) {
+        return play(games, new Pairing() {
+            @Override
+            public long seed(int game) {
+                return seed + game;
+            }
+
+            @Override
+            public AI player(int game, Piece side) {
+                return side == WHITE ? white : black;
+            }
+        }, listener);
+    }
+
+    /** Play up to GAMES games in parallel, with seeds and players chosen
+     *  by PAIRING, passing each result to LISTENER as it ends.  Stops
+     *  starting new games once stop() is called (possibly by LISTENER).
+     *  Returns the results of the games played in order of game
+     *  number. */
+    List<Result> play(int games, Pairing pairing, Listener listener) {
+        _stopped = false;
+        Result[] results = new Result[games];
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(_threads, r -> {
+            Thread thread = new Thread(r, "tablut-self-play");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < _threads; t += 1) {
+                workers.add(pool.submit(() -> {
+                    Worker worker = new Worker();
+                    try {
+                        for (int i = next.getAndIncrement();
+                             i < games && !_stopped;
+                             i = next.getAndIncrement()) {
+                            results[i] =
+                                worker.play(i, pairing.seed(i),
+                                            pairing.player(i, WHITE),
+                                            pairing.player(i, BLACK));
+                            listener.gameOver(results[i]);
+                        }
+                    } finally {
+                        worker.release();
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException | ExecutionException excp) {
+            throw new IllegalStateException("self-play failed: " + excp);
+        } finally {
+            pool.shutdown();
+        }
+        List<Result> played = new ArrayList<>();
+        for (Result result : results) {
+            if (result != null) {
+                played.add(result);
+            }
+        }
+        return played;
+    }
+
+    /** Start no more games in the current call of play.  Games in
+     *  progress are finished. */
+    void stop() {
+        _stopped = true;
+    }
+
+    /** Write RESULT to OUT as a line in the format of CSV_HEADER.  May be
+     *  called from several threads at once. */
+    synchronized void print(Result result, PrintStream out) {
+        out.println(result.toCSV());
+    }
+
+    /** Return a summary of RESULTS, played in NANOS nanoseconds. */
+    static String summary(List<Result> results, long nanos) {
+        int white = 0, black = 0;
+        for (Result result : results) {
+            if (result.winner() == WHITE) {
+                white += 1;
+            } else if (result.winner() == BLACK) {
+                black += 1;
+            }
+        }
+        double seconds = nanos * 1e-9;
+        return String.format("Games: %d  White: %d  Black: %d  Unfinished:"
+                             + " %d  Time: %.1f s  Games/hour: %.0f",
+                             results.size(), white, black,
+                             results.size() - white - black, seconds,
+                             results.size() * 3600 / seconds);
+    }
+
+    /** The outcome of one game. */
+    static class Result {
+
+        /** The result of game number GAME, played from seed SEED between
+         *  the AIs named WHITE and BLACK, in which the moves were MOVES,
+         *  taking MOVEMILLIS milliseconds each, WINNER (null if none) won,
+         *  and which took MILLIS milliseconds in all. */
+        Result(int game, long seed, String white, String black,
+               List<Move> moves, List<Long> moveMillis, Piece winner,
+               long millis) {
+            _game = game;
+            _seed = seed;
+            _white = white;
+            _black = black;
+            _moves = moves;
+            _moveMillis = moveMillis;
+            _winner = winner;
+            _millis = millis;
+        }
+
+        /** Return the game number. */
+        int game() {
+            return _game;
+        }
+
+        /** Return the winner, or null if the game was abandoned. */
+        Piece winner() {
+            return _winner;
+        }
+
+        /** Return the name of the AI that played SIDE. */
+        String player(Piece side) {
+            return side == WHITE ? _white : _black;
+        }
+
+        /** Return the number of moves made. */
+        int plies() {
+            return _moves.size();
+        }
+
+        /** Return me as a line in the format of CSV_HEADER. */
+        String toCSV() {
+            StringBuilder moves = new StringBuilder(),
+                millis = new StringBuilder();
+            for (int k = 0; k < _moves.size(); k += 1) {
+                String sep = k == 0 ? "" : " ";
+                moves.append(sep).append(_moves.get(k));
+                millis.append(sep).append(_moveMillis.get(k));
+            }
+            return String.format("%d,%d,%s,%s,%s,%d,%d,%s,%s", _game, _seed,
+                                 _white, _black,
+                                 _winner == null ? "none" : _winner.toName(),
+                                 _moves.size(), _millis, moves, millis);
+        }
+
+        /** The game number and seed. */
+        private final int _game;
+        /** The seed of the game. */
+        private final long _seed;
+        /** The names of the white and black AIs. */
+        private final String _white, _black;
+        /** The moves made. */
+        private final List<Move> _moves;
+        /** The milliseconds taken by each move (0 for random ones). */
+        private final List<Long> _moveMillis;
+        /** The winner, or null. */
+        private final Piece _winner;
+        /** The milliseconds taken by the game. */
+        private final long _millis;
+    }
+
+    /** The Controller and AIs of one thread. */
+    private class Worker {
+
+        /** A Worker with a Controller having my settings. */
+        Worker() {
+            _controller = new Controller(new NullView(), null,
+                                         new NullReporter(),
+                                         new TextPlayer(), new AI(), false);
+            _controller.setMoveTime(_moveTime);
+            _controller.setBook(_book);
+            _controller.setTablebase(_tablebase);
+        }
+
+        /** Return the result of game number GAME, played with seed SEED
+         *  between AIs created from WHITE and BLACK. */
+        Result play(int game, long seed, AI white, AI black) {
+            long start = System.nanoTime();
+            Random random = new Random(seed);
+            _controller.setSeed(seed);
+            Board board = new Board();
+            List<Move> moves = new ArrayList<>();
+            List<Long> millis = new ArrayList<>();
+            while (board.winner() == null && moves.size() < _maxPlies) {
+                Move move;
+                long moveStart = System.nanoTime();
+                if (moves.size() < _randomPlies) {
+                    List<Move> legal = board.legalMoves(board.turn());
+                    move = legal.get(random.nextInt(legal.size()));
+                } else {
+                    AI ai = player(board.turn() == WHITE ? white : black,
+                                   board.turn());
+                    move = ai.findMove(board);
+                }
+                millis.add((System.nanoTime() - moveStart) / 1000000);
+                moves.add(move);
+                board.makeMove(move);
+            }
+            return new Result(game, seed, name(white), name(black), moves,
+                              millis, board.winner(),
+                              (System.nanoTime() - start) / 1000000);
+        }
+
+        /** Return my AI created from TEMPLATE to play SIDE, creating it
+         *  on first use. */
+        private AI player(AI template, Piece side) {
+            AI[] players =
+                _players.computeIfAbsent(template, t -> new AI[2]);
+            int k = side == WHITE ? 1 : 0;
+            if (players[k] == null) {
+                players[k] = (AI) template.create(side, _controller);
+            }
+            return players[k];
+        }
+
+        /** Release all the AIs I have created. */
+        void release() {
+            for (AI[] players : _players.values()) {
+                for (AI player : players) {
+                    if (player != null) {
+                        player.release();
+                    }
+                }
+            }
+            _players.clear();
+        }
+
+        /** The Controller supplying my AIs' settings. */
+        private final Controller _controller;
+        /** The black and white AIs I have created from each template. */
+        private final Map<AI, AI[]> _players = new HashMap<>();
+    }
+
+    /** Report the games of TEMPLATE in results under NAME.  Must not be
+     *  called during play. */
+    void setName(AI template, String name) {
+        _names.put(template, name);
+    }
+
+    /** Return the name under which results report TEMPLATE: that given by
+     *  setName, if any, or else the kind of engine. */
+    String name(AI template) {
+        String name = _names.get(template);
+        if (name != null) {
+            return name;
+        }
+        return template instanceof ParallelAI ? "ybwc" : "smp";
+    }
+
+    /** The number of games played at once. */
+    private final int _threads;
+    /** The time limit per AI move in milliseconds. */
+    private final long _moveTime;
+    /** The number of random moves at the start of each game. */
+    private final int _randomPlies;
+    /** The number of moves after which a game is abandoned. */
+    private final int _maxPlies;
+    /** The opening book used by the AIs, or null. */
+    private OpeningBook _book;
+    /** The tablebase used by the AIs, or null. */
+    private Tablebase _tablebase;
+    /** The names given to templates by setName. */
+    private final Map<AI, String> _names = new HashMap<>();
+    /** True iff no more games are to be started. */
+    private volatile boolean _stopped;
+}
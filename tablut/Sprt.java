@@ -0,0 +1,119 @@
+package tablut;
+
+import static java.lang.Math.*;
+import static tablut.Utils.*;
+
+/** A sequential probability ratio test of whether one player is stronger
+ *  than another, from the results of the games between them.  The test
+ *  weighs the hypothesis H0, that the first player's Elo advantage is
+ *  ELO0, against H1, that it is ELO1, using the usual normal
+ *  approximation to the log-likelihood ratio (LLR) of the mean score
+ *  (1 for a win, 1/2 for a draw, 0 for a loss).  The test accepts H1
+ *  once the LLR reaches upperBound(), and H0 once it falls to
+ *  lowerBound(), so that it wrongly accepts H1 with probability at most
+ *  ALPHA and wrongly accepts H0 with probability at most BETA.
+ *  @author Young Hoon Kang
+ */
+class Sprt {
+
+    /** A test of H0: elo = ELO0 against H1: elo = ELO1, with error
+     *  probabilities ALPHA and BETA. */
+    Sprt(double elo0, double elo1, double alpha, double beta) {
+        if (elo0 >= elo1 || alpha <= 0 || alpha >= 1 || beta <= 0
+            || beta >= 1) {
+            throw error("bad SPRT parameters");
+        }
+        _score0 = expectedScore(elo0);
+        _score1 = expectedScore(elo1);
+        _lower = log(beta / (1 - alpha));
+        _upper = log((1 - beta) / alpha);
+    }
+
+    /** Return the expected score of a player with an advantage of ELO. */
+    static double expectedScore(double elo) {
+        return 1 / (1 + pow(10, -elo / 400));
+    }
+
+    /** Record a game in which the first player scored SCORE (1, 0.5,
+     *  or 0). */
+    synchronized void add(double score) {
+        if (score == 1) {
+            _wins += 1;
+        } else if (score == 0) {
+            _losses += 1;
+        } else if (score == 0.5) {
+            _draws += 1;
+        } else {
+            throw error("bad score: %s", score);
+        }
+    }
+
+    /** Return the number of games recorded. */
+    synchronized int games() {
+        return _wins + _draws + _losses;
+    }
+
+    /** Return the first player's mean score so far, or 0.5 if there have
+     *  been no games. */
+    synchronized double score() {
+        int n = games();
+        return n == 0 ? 0.5 : (_wins + 0.5 * _draws) / n;
+    }
+
+    /** Return the Elo advantage of the first player implied by score(),
+     *  which is infinite if either player has won every game. */
+    synchronized double elo() {
+        return -400 * log10(1 / score() - 1);
+    }
+
+    /** Return the current log-likelihood ratio of H1 to H0.  This is 0
+     *  until the scores vary (i.e., while all games have had the same
+     *  result), since the variance of the score is then unknown. */
+    synchronized double llr() {
+        int n = games();
+        if (n == 0) {
+            return 0;
+        }
+        double mean = score();
+        double variance =
+            (_wins * (1 - mean) * (1 - mean)
+             + _draws * (0.5 - mean) * (0.5 - mean)
+             + _losses * mean * mean) / n;
+        if (variance == 0) {
+            return 0;
+        }
+        return n * (_score1 - _score0) * (2 * mean - _score0 - _score1)
+            / (2 * variance);
+    }
+
+    /** Return the LLR at or below which H0 is accepted. */
+    double lowerBound() {
+        return _lower;
+    }
+
+    /** Return the LLR at or above which H1 is accepted. */
+    double upperBound() {
+        return _upper;
+    }
+
+    /** Return 1 if the test has accepted H1, -1 if it has accepted H0,
+     *  and 0 if it is undecided. */
+    synchronized int status() {
+        double llr = llr();
+        return llr >= _upper ? 1 : llr <= _lower ? -1 : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Games: %d  W/D/L: %d/%d/%d  Elo: %.1f"
+                             + "  LLR: %.2f [%.2f, %.2f]", games(), _wins,
+                             _draws, _losses, elo(), llr(), _lower, _upper);
+    }
+
+    /** The expected scores of the first player under H0 and H1. */
+    private final double _score0, _score1;
+    /** The bounds on the LLR at which the test stops. */
+    private final double _lower, _upper;
+    /** The numbers of wins, draws, and losses of the first player. */
+    private int _wins, _draws, _losses;
+}
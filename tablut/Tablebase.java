@@ -0,0 +1,658 @@
+package tablut;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static tablut.Piece.*;
+import static tablut.Square.*;
+import static tablut.Utils.*;
+
+/** An endgame tablebase: the outcome with best play of every position
+ *  with the king and at most maxPieces() pieces in all, ignoring
+ *  repetitions.
+ *
+ *  Positions are grouped by their numbers of black and of white pieces
+ *  (not counting the king), and each group is numbered by the side to
+ *  move, the king's square, and the sets of squares of the black and of
+ *  the white pieces.  The value of a position is one byte: DRAW (0) if
+ *  neither side can force a win, and otherwise one more than the number
+ *  of plies to the end of the game, with the winner playing to win as
+ *  soon as possible and the loser to lose as late as possible.  An odd
+ *  number of plies is a win for the side to move.
+ *
+ *  A tablebase file begins with MAGIC, the number of pieces, and the
+ *  number of groups, followed by a directory giving the numbers of black
+ *  and white pieces, offset, and length of each group, and then the
+ *  values of the groups' positions in order.  The groups are mapped into
+ *  memory when the file is opened.
+ *
+ *  The values are computed by retrograde analysis, for groups in order
+ *  of increasing numbers of pieces.  Positions already over, and those
+ *  whose moves all capture into solved groups, are decided first.  Then,
+ *  for each number of plies N in turn, the positions decided at N plies
+ *  are unmade by Board.retroMoves: their predecessors are wins in N + 1
+ *  if they were losses, and lose a remaining move otherwise, becoming
+ *  losses when they have no moves left.
+ *  @author Young Hoon Kang
+ */
+class Tablebase {
+
+    /** The first eight bytes of a tablebase file ("TABLBASE"). */
+    static final long MAGIC = 0x5441424C42415345L;
+    /** The largest number of pieces, counting the king, that a tablebase
+     *  may cover. */
+    static final int MAX_PIECES = 4;
+    /** The value of positions in which neither side can force a win. */
+    static final int DRAW = 0;
+    /** The result of probe for positions that I do not cover. */
+    static final int NOT_FOUND = -1;
+    /** The largest number of plies to the end that a value can hold. */
+    static final int LONGEST = 254;
+    /** The sizes in bytes of the header and of each directory entry. */
+    private static final int HEADER_SIZE = 16, ENTRY_SIZE = 24;
+
+    /** BINOMIAL[n][k] is n choose k. */
+    private static final long[][] BINOMIAL =
+        new long[NUM_SQUARES + 1][MAX_PIECES + 1];
+
+    static {
+        for (int n = 0; n <= NUM_SQUARES; n += 1) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= MAX_PIECES && k <= n; k += 1) {
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+            }
+        }
+    }
+
+    /** The main program.  ARGS are [ -t THREADS ] PIECES FILE.  Writes the
+     *  tablebase of positions with at most PIECES pieces to FILE, using
+     *  THREADS threads (default: one per processor). */
+    public static void main(String... args) {
+        int threads = Runtime.getRuntime().availableProcessors(), k = 0;
+        try {
+            if (args.length > k + 1 && args[k].equals("-t")) {
+                threads = Integer.parseInt(args[k + 1]);
+                k += 2;
+            }
+            if (args.length != k + 2) {
+                throw new ArrayIndexOutOfBoundsException();
+            }
+            generate(Integer.parseInt(args[k]), threads, new File(args[k + 1]),
+                     System.out);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Usage: java tablut.Tablebase [ -t THREADS ]"
+                               + " PIECES FILE");
+            System.exit(1);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Write the tablebase of all positions with at most PIECES pieces to
+     *  FILE, solving them with THREADS threads and reporting progress to
+     *  LOG (if not null). */
+    static void generate(int pieces, int threads, File file, PrintStream log)
+        throws IOException {
+        if (pieces < 1 || pieces > MAX_PIECES) {
+            throw error("pieces must be between 1 and %d", MAX_PIECES);
+        }
+        if (threads < 1) {
+            throw error("need at least one thread");
+        }
+        Solver solver = new Solver(threads, log);
+        List<int[]> groups = groups(pieces);
+        try {
+            for (int[] group : groups) {
+                solver.solve(group[0], group[1]);
+            }
+        } finally {
+            solver.shutdown();
+        }
+        try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(
+                 new FileOutputStream(file)))) {
+            out.writeLong(MAGIC);
+            out.writeInt(pieces);
+            out.writeInt(groups.size());
+            long offset = HEADER_SIZE + ENTRY_SIZE * groups.size();
+            for (int[] group : groups) {
+                long length = size(group[0], group[1]);
+                out.writeInt(group[0]);
+                out.writeInt(group[1]);
+                out.writeLong(offset);
+                out.writeLong(length);
+                offset += length;
+            }
+            for (int[] group : groups) {
+                out.write(solver.values(group[0], group[1]));
+            }
+        }
+    }
+
+    /** Return the numbers of black and white pieces (not counting the
+     *  king) of the groups of positions with at most PIECES pieces, in the
+     *  order in which they must be solved. */
+    private static List<int[]> groups(int pieces) {
+        List<int[]> result = new ArrayList<>();
+        for (int n = 0; n < pieces; n += 1) {
+            for (int black = n; black >= 0; black -= 1) {
+                result.add(new int[] { black, n - black });
+            }
+        }
+        return result;
+    }
+
+    /** Return the tablebase in FILE, mapped into memory. */
+    static Tablebase open(File file) throws IOException {
+        try (FileChannel channel =
+             FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(
+                HEADER_SIZE + ENTRY_SIZE * groups(MAX_PIECES).size());
+            channel.read(header, 0);
+            int pieces = header.getInt(8), count = header.getInt(12);
+            if (header.getLong(0) != MAGIC
+                || pieces < 1 || pieces > MAX_PIECES
+                || count != groups(pieces).size()
+                || channel.size() < HEADER_SIZE + ENTRY_SIZE * count) {
+                throw new IOException(file + ": not a tablebase");
+            }
+            Map<Integer, ByteBuffer> tables = new HashMap<>();
+            for (int g = 0; g < count; g += 1) {
+                int k = HEADER_SIZE + g * ENTRY_SIZE;
+                int black = header.getInt(k), white = header.getInt(k + 4);
+                long offset = header.getLong(k + 8),
+                    length = header.getLong(k + 16);
+                if (black < 0 || white < 0 || black + white >= pieces
+                    || length != size(black, white)
+                    || offset + length > channel.size()) {
+                    throw new IOException(file + ": not a tablebase");
+                }
+                tables.put(group(black, white),
+                           channel.map(FileChannel.MapMode.READ_ONLY,
+                                       offset, length));
+            }
+            return new Tablebase(pieces, tables);
+        }
+    }
+
+    /** A tablebase of positions with at most PIECES pieces, whose values
+     *  for the group with B black and W white pieces are in
+     *  TABLES.get(group(B, W)). */
+    private Tablebase(int pieces, Map<Integer, ByteBuffer> tables) {
+        _pieces = pieces;
+        _tables = tables;
+    }
+
+    /** Return the largest number of pieces, counting the king, in the
+     *  positions I cover. */
+    int maxPieces() {
+        return _pieces;
+    }
+
+    /** Return the value of BOARD's position, as described above, or
+     *  NOT_FOUND if it has too many pieces or the game is over. */
+    int probe(Board board) {
+        return probe(board, new int[MAX_PIECES]);
+    }
+
+    /** Return the value of BOARD's position, as for probe(BOARD), using
+     *  SCRATCH (which must hold MAX_PIECES values) as scratch space, so
+     *  that searchers can probe without allocating. */
+    int probe(Board board, int[] scratch) {
+        int black = board.material(BLACK), white = board.material(WHITE);
+        if (black + white > _pieces || board.winner() != null
+            || board.kingPosition() == null) {
+            return NOT_FOUND;
+        }
+        ByteBuffer table = _tables.get(group(black, white - 1));
+        return table.get((int) index(board, scratch)) & 0xff;
+    }
+
+    /** Return true iff VALUE, the value of a position other than DRAW, is
+     *  a win for the side to move. */
+    static boolean isWin(int value) {
+        return plies(value) % 2 == 1;
+    }
+
+    /** Return the number of plies to the end of the game in a position of
+     *  value VALUE, other than DRAW. */
+    static int plies(int value) {
+        return value - 1;
+    }
+
+    /** Return the key of the group with BLACK black pieces and WHITE white
+     *  ones besides the king. */
+    private static int group(int black, int white) {
+        return black * NUM_SQUARES + white;
+    }
+
+    /** Return the number of positions in the group with BLACK black pieces
+     *  and WHITE white ones besides the king. */
+    private static long size(int black, int white) {
+        return 2L * NUM_SQUARES * BINOMIAL[NUM_SQUARES - 1][black]
+            * BINOMIAL[NUM_SQUARES - 1 - black][white];
+    }
+
+    /** Return the number of BOARD's position in its group, using SQUARES
+     *  (which must hold MAX_PIECES values) as scratch space. */
+    private static long index(Board board, int[] squares) {
+        int black = board.material(BLACK), white = board.material(WHITE);
+        int king = board.kingPosition().index();
+        for (int k = 0; k < black; k += 1) {
+            squares[k] = board.piece(BLACK, k).index();
+        }
+        int n = black;
+        for (int k = 0; k < white; k += 1) {
+            int s = board.piece(WHITE, k).index();
+            if (s != king) {
+                squares[n] = s;
+                n += 1;
+            }
+        }
+        return index(board.turn(), king, squares, black, white - 1);
+    }
+
+    /** Return the number in its group of the position with SIDE to move,
+     *  the king on the square with index KING, black pieces on the squares
+     *  with indices SQUARES[0 .. BLACK-1], and white ones on those with
+     *  indices SQUARES[BLACK .. BLACK+WHITE-1].  Sorts both parts of
+     *  SQUARES. */
+    private static long index(Piece side, int king, int[] squares,
+                              int black, int white) {
+        Arrays.sort(squares, 0, black);
+        Arrays.sort(squares, black, black + white);
+        long blackRank = 0, whiteRank = 0;
+        for (int k = 0; k < black; k += 1) {
+            int s = squares[k];
+            blackRank += BINOMIAL[s > king ? s - 1 : s][k + 1];
+        }
+        for (int k = 0, b = 0; k < white; k += 1) {
+            int s = squares[black + k];
+            while (b < black && squares[b] < s) {
+                b += 1;
+            }
+            whiteRank += BINOMIAL[s - b - (s > king ? 1 : 0)][k + 1];
+        }
+        long index = king * BINOMIAL[NUM_SQUARES - 1][black] + blackRank;
+        index = index * BINOMIAL[NUM_SQUARES - 1 - black][white] + whiteRank;
+        return 2 * index + (side == WHITE ? 1 : 0);
+    }
+
+    /** Set up BOARD as position INDEX of the group with BLACK black and
+     *  WHITE white pieces besides the king, using SQUARES (which must hold
+     *  MAX_PIECES values) to return the indices of the black pieces'
+     *  squares, in order, followed by the white pieces'.  Returns the
+     *  index of the king's square. */
+    private static int decode(long index, int black, int white,
+                              Board board, int[] squares) {
+        Piece side = index % 2 == 1 ? WHITE : BLACK;
+        index /= 2;
+        long whites = BINOMIAL[NUM_SQUARES - 1 - black][white],
+            blacks = BINOMIAL[NUM_SQUARES - 1][black];
+        long whiteRank = index % whites;
+        index /= whites;
+        long blackRank = index % blacks;
+        int king = (int) (index / blacks);
+        unrank(blackRank, black, squares, 0);
+        for (int k = 0; k < black; k += 1) {
+            if (squares[k] >= king) {
+                squares[k] += 1;
+            }
+        }
+        unrank(whiteRank, white, squares, black);
+        for (int k = black; k < black + white; k += 1) {
+            int s = squares[k];
+            boolean kingSkipped = false;
+            for (int b = 0; b <= black; b += 1) {
+                int skipped = b < black ? squares[b] : NUM_SQUARES;
+                if (!kingSkipped && king < skipped) {
+                    if (s >= king) {
+                        s += 1;
+                    }
+                    kingSkipped = true;
+                }
+                if (b < black && s >= skipped) {
+                    s += 1;
+                }
+            }
+            squares[k] = s;
+        }
+        board.clear(side);
+        board.put(KING, sq(king));
+        for (int k = 0; k < black + white; k += 1) {
+            board.put(k < black ? BLACK : WHITE, sq(squares[k]));
+        }
+        return king;
+    }
+
+    /** Store the N numbers in increasing order whose combination has rank
+     *  RANK into SQUARES[START .. START+N-1]. */
+    private static void unrank(long rank, int n, int[] squares, int start) {
+        int c = NUM_SQUARES - 1;
+        for (int k = n; k > 0; k -= 1) {
+            c -= 1;
+            while (BINOMIAL[c][k] > rank) {
+                c -= 1;
+            }
+            squares[start + k - 1] = c;
+            rank -= BINOMIAL[c][k];
+        }
+    }
+
+    /** Solves groups of positions by retrograde analysis. */
+    private static class Solver {
+
+        /** The number of positions handled by a task without splitting. */
+        private static final int CHUNK = 1 << 12;
+        /** The state of a position that is not a legal position of an
+         *  unfinished game. */
+        private static final int INVALID = Integer.MAX_VALUE;
+
+        /** A Solver using THREADS threads, reporting progress to LOG (if
+         *  not null). */
+        Solver(int threads, PrintStream log) {
+            _pool = new ForkJoinPool(threads);
+            _log = log;
+        }
+
+        /** Stop my threads. */
+        void shutdown() {
+            _pool.shutdown();
+        }
+
+        /** Return the values of the group with BLACK black and WHITE white
+         *  pieces, which must have been solved. */
+        byte[] values(int black, int white) {
+            return _solved.get(group(black, white));
+        }
+
+        /** Solve the group with BLACK black pieces and WHITE white pieces
+         *  besides the king, assuming that all groups with fewer pieces
+         *  have been solved. */
+        void solve(int black, int white) {
+            long start = System.nanoTime();
+            long size = size(black, white);
+            if (size > Integer.MAX_VALUE - 8) {
+                throw error("too many positions");
+            }
+            _black = black;
+            _white = white;
+            _state = new AtomicIntegerArray((int) size);
+            _winPlies = new byte[(int) size];
+            _lossPlies = new byte[(int) size];
+            _longest.set(0);
+            run(this::initialize);
+            for (int n = 0; n <= _longest.get(); n += 1) {
+                final int plies = n;
+                if (plies > LONGEST) {
+                    throw error("positions too long to solve");
+                }
+                run((w, i) -> promote(i, plies));
+                run((w, i) -> unmake(w, i, plies));
+            }
+            byte[] values = new byte[(int) size];
+            int wins = 0, losses = 0;
+            for (int i = 0; i < size; i += 1) {
+                int s = _state.get(i);
+                if (s < 0) {
+                    values[i] = (byte) -s;
+                    if (isWin(-s)) {
+                        wins += 1;
+                    } else {
+                        losses += 1;
+                    }
+                }
+            }
+            _solved.put(group(black, white), values);
+            _state = null;
+            _winPlies = _lossPlies = null;
+            if (_log != null) {
+                _log.printf("K+%dB+%dW: %d positions, %d wins, %d losses,"
+                            + " longest %d plies (%.1f s)%n",
+                            black, white, size, wins, losses,
+                            _longest.get(),
+                            (System.nanoTime() - start) * 1e-9);
+            }
+        }
+
+        /** Apply PHASE to every position of the current group, in
+         *  parallel. */
+        private void run(Phase phase) {
+            _pool.invoke(new Sweep(phase, 0, _state.length()));
+        }
+
+        /** Work on a range of positions, splitting it among subtasks. */
+        private class Sweep extends RecursiveAction {
+            /** A task applying PHASE to positions LO .. HI-1. */
+            Sweep(Phase phase, int lo, int hi) {
+                _phase = phase;
+                _lo = lo;
+                _hi = hi;
+            }
+
+            @Override
+            protected void compute() {
+                if (_hi - _lo <= CHUNK) {
+                    Worker worker = _workers.get();
+                    for (int i = _lo; i < _hi; i += 1) {
+                        _phase.run(worker, i);
+                    }
+                } else {
+                    int mid = (_lo + _hi) >>> 1;
+                    invokeAll(new Sweep(_phase, _lo, mid),
+                              new Sweep(_phase, mid, _hi));
+                }
+            }
+
+            /** The operation to apply. */
+            private final Phase _phase;
+            /** The range of positions. */
+            private final int _lo, _hi;
+        }
+
+        /** Set the initial state of position I of the current group, using
+         *  the scratch space of W.  Positions that are over are losses in 0
+         *  plies.  Otherwise, moves that win at once or capture into
+         *  solved positions give the position's best win (_winPlies) or
+         *  latest loss (_lossPlies) so far, a move to a drawn position
+         *  keeps it from being lost, and the state counts the moves left
+         *  to be decided. */
+        private void initialize(Worker w, int i) {
+            int king = decode(i, _black, _white, w._board, w._squares);
+            Board board = w._board;
+            boolean valid = !Board.isCorner(king);
+            for (int k = 0; k < _black + _white; k += 1) {
+                valid &= w._squares[k] != Board.THRONE.index();
+            }
+            if (!valid) {
+                _state.set(i, INVALID);
+                return;
+            }
+            Piece side = board.turn();
+            int n = board.legalMoves(side, w._moves, 0);
+            if (n == 0) {
+                _state.set(i, -1);
+                return;
+            }
+            int count = 0, win = 0, loss = 0;
+            for (int k = 0; k < n; k += 1) {
+                int move = w._moves[k];
+                board.makeMove(move);
+                if (board.winner() != null) {
+                    win = 1;
+                } else if ((move & Move.CAPTURE) == 0) {
+                    count += 1;
+                } else {
+                    int value = _solved.get(group(
+                        board.material(BLACK), board.material(WHITE) - 1))
+                        [(int) index(board, w._squares)] & 0xff;
+                    if (value == DRAW) {
+                        count += 1;
+                    } else if (!isWin(value)) {
+                        int plies = plies(value) + 1;
+                        win = win == 0 ? plies : Math.min(win, plies);
+                    } else {
+                        loss = Math.max(loss, plies(value));
+                    }
+                }
+                board.undo();
+            }
+            if (win != 0) {
+                _winPlies[i] = (byte) win;
+                _state.set(i, count);
+                note(win);
+            } else if (count == 0) {
+                _state.set(i, -(loss + 2));
+                note(loss + 1);
+            } else {
+                _lossPlies[i] = (byte) loss;
+                _state.set(i, count);
+            }
+        }
+
+        /** Decide position I as a win in PLIES plies if it is undecided
+         *  and has a capture that wins in that many. */
+        private void promote(int i, int plies) {
+            if (plies > 0 && (_winPlies[i] & 0xff) == plies) {
+                int s = _state.get(i);
+                if (s >= 0 && s != INVALID) {
+                    _state.compareAndSet(i, s, -(plies + 1));
+                }
+            }
+        }
+
+        /** If position I was decided in PLIES plies, update the positions
+         *  from which it can be reached by a move, using the scratch space
+         *  of W. */
+        private void unmake(Worker w, int i, int plies) {
+            if (_state.get(i) != -(plies + 1)) {
+                return;
+            }
+            Board board = w._board;
+            int king = decode(i, _black, _white, board, w._squares);
+            Piece mover = board.turn().opponent();
+            int n = board.retroMoves(w._moves, 0);
+            int[] squares = w._squares, before = w._before;
+            for (int k = 0; k < n; k += 1) {
+                int from = Move.from(w._moves[k]), to = Move.to(w._moves[k]);
+                int newKing = king == to ? from : king;
+                for (int j = 0; j < _black + _white; j += 1) {
+                    before[j] = squares[j] == to ? from : squares[j];
+                }
+                int p = (int) index(mover, newKing, before, _black, _white);
+                if (plies % 2 == 0) {
+                    win(p, plies + 1);
+                } else {
+                    refute(p, plies + 1);
+                }
+            }
+        }
+
+        /** Decide position P as a win in PLIES plies, unless it has been
+         *  decided already. */
+        private void win(int p, int plies) {
+            while (true) {
+                int s = _state.get(p);
+                if (s < 0 || s == INVALID) {
+                    return;
+                } else if (_state.compareAndSet(p, s, -(plies + 1))) {
+                    note(plies);
+                    return;
+                }
+            }
+        }
+
+        /** Note that a move from the undecided position P leads to a win
+         *  for the other side in PLIES - 1 plies.  When P has no moves left
+         *  and no winning capture, it is lost in PLIES plies, or more if a
+         *  capture loses later. */
+        private void refute(int p, int plies) {
+            while (true) {
+                int s = _state.get(p);
+                if (s <= 0 || s == INVALID) {
+                    return;
+                }
+                int next = s - 1;
+                if (next == 0 && _winPlies[p] == 0) {
+                    int loss = Math.max(plies, (_lossPlies[p] & 0xff) + 1);
+                    next = -(loss + 1);
+                    if (_state.compareAndSet(p, s, next)) {
+                        note(loss);
+                        return;
+                    }
+                } else if (_state.compareAndSet(p, s, next)) {
+                    return;
+                }
+            }
+        }
+
+        /** Note that some position has been decided in PLIES plies. */
+        private void note(int plies) {
+            _longest.accumulateAndGet(plies, Math::max);
+        }
+
+        /** An operation on position I of the current group, using the
+         *  scratch space of a Worker W. */
+        private interface Phase {
+            /** Apply me to position I, using W. */
+            void run(Worker w, int i);
+        }
+
+        /** The scratch space of one thread. */
+        private static class Worker {
+            /** A board on which to set up positions. */
+            private final Board _board = new Board();
+            /** Move buffer. */
+            private final int[] _moves = new int[Board.MAX_MOVES];
+            /** The squares of the pieces of a position, and of its
+             *  predecessor. */
+            private final int[] _squares = new int[MAX_PIECES],
+                _before = new int[MAX_PIECES];
+        }
+
+        /** The threads that do the work. */
+        private final ForkJoinPool _pool;
+        /** The scratch space of each thread. */
+        private final ThreadLocal<Worker> _workers =
+            ThreadLocal.withInitial(Worker::new);
+        /** Where to report progress, or null. */
+        private final PrintStream _log;
+        /** The values of the solved groups, by group(). */
+        private final Map<Integer, byte[]> _solved = new HashMap<>();
+        /** The numbers of black and white pieces of the group being
+         *  solved. */
+        private int _black, _white;
+        /** The state of each position of the current group: -(value) if
+         *  decided, INVALID if not a position, and otherwise the number of
+         *  its moves not yet known to lose. */
+        private AtomicIntegerArray _state;
+        /** The plies in which each undecided position of the current group
+         *  wins by its best capture or immediate win (0 if none), and
+         *  loses by its latest-losing capture. */
+        private byte[] _winPlies, _lossPlies;
+        /** The largest number of plies of a position decided so far. */
+        private final AtomicInteger _longest = new AtomicInteger();
+    }
+
+    /** The largest number of pieces in the positions I cover. */
+    private final int _pieces;
+    /** The values of my groups, by group(). */
+    private final Map<Integer, ByteBuffer> _tables;
+}
@@ -21,4 +21,15 @@ class TextReporter implements Reporter {
     public void reportMove(Move move) {
         System.out.printf("* %s%n", move);
     }
+
+    @Override
+    public void reportSearchInfo(SearchInfo info) {
+        System.out.printf("* %s%n", info);
+    }
+
+    /** Progress is not shown in text, since the search reports its result
+     *  soon enough. */
+    @Override
+    public void reportProgress(SearchInfo info) {
+    }
 }
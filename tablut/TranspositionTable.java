@@ -0,0 +1,164 @@
+package tablut;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A fixed-size table of search results, indexed by the hash of a
+ *  position (Board.hashKey()).  The table is an array of two-entry buckets:
+ *  the first entry of a bucket keeps the result of the deepest search that
+ *  hashed to it, and the second is replaced by every other result.
+ *  Results are returned packed into a single long, which the static
+ *  accessors depth, score, bound, and move decode.
+ *
+ *  The table may be shared by several search threads without locking.
+ *  Each entry stores its hash XORed with its data, so an entry torn by
+ *  simultaneous writes fails to match any hash on lookup and is simply
+ *  missed.
+ *  @author Young Hoon Kang
+ */
+final class TranspositionTable {
+
+    /** Bound types: the stored score is exact, a lower bound on the true
+     *  value, or an upper bound on it. */
+    static final int EXACT = 0, LOWER = 1, UPPER = 2;
+
+    /** Bytes used by one entry (a key and its packed data). */
+    static final int ENTRY_BYTES = 16;
+
+    /** Entries per bucket. */
+    private static final int BUCKET_SIZE = 2;
+
+    /** A table occupying at most MEGABYTES megabytes (and at least one
+     *  bucket). */
+    TranspositionTable(int megabytes) {
+        long entries = ((long) megabytes << 20) / ENTRY_BYTES;
+        int buckets = 1;
+        while ((long) buckets * 2 * BUCKET_SIZE <= entries
+               && buckets < (1 << 29)) {
+            buckets *= 2;
+        }
+        _keys = new long[buckets * BUCKET_SIZE];
+        _data = new long[buckets * BUCKET_SIZE];
+        _mask = buckets - 1;
+        _megabytes = megabytes;
+    }
+
+    /** Return the size in megabytes requested when I was created. */
+    int megabytes() {
+        return _megabytes;
+    }
+
+    /** Remove all entries and reset the counters. */
+    void clear() {
+        Arrays.fill(_keys, 0L);
+        Arrays.fill(_data, 0L);
+        _hits.reset();
+        _misses.reset();
+        _collisions.reset();
+    }
+
+    /** Return the packed result stored for KEY, or 0 if there is none. */
+    long probe(long key) {
+        int b = bucket(key);
+        for (int k = b; k < b + BUCKET_SIZE; k += 1) {
+            long data = _data[k];
+            if ((_keys[k] ^ data) == key && data != 0) {
+                _hits.increment();
+                return data;
+            }
+        }
+        _misses.increment();
+        return 0;
+    }
+
+    /** Record that a search of DEPTH plies from the position with hash KEY
+     *  produced SCORE, which is of type BOUND (EXACT, LOWER, or UPPER), and
+     *  that MOVE (possibly null) was the best move found. */
+    void store(long key, int depth, int score, int bound, Move move) {
+        int b = bucket(key);
+        int k;
+        long first = _data[b];
+        if ((_keys[b] ^ first) == key || depth >= depth(first)) {
+            k = b;
+        } else {
+            k = b + 1;
+        }
+        long old = _data[k];
+        if (old != 0 && (_keys[k] ^ old) != key) {
+            _collisions.increment();
+        }
+        long data = pack(depth, score, bound, move);
+        _keys[k] = key ^ data;
+        _data[k] = data;
+    }
+
+    /** Return the search depth recorded in DATA, a value returned by
+     *  probe. */
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & 0xff;
+    }
+
+    /** Return the score recorded in DATA. */
+    static int score(long data) {
+        return (int) data;
+    }
+
+    /** Return the bound type recorded in DATA. */
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & 3;
+    }
+
+    /** Return the best move recorded in DATA, or null if none was. */
+    static Move move(long data) {
+        int m = (int) (data >>> MOVE_SHIFT) & 0x7ff;
+        return m == 0 ? null : Move.mv(m - 1);
+    }
+
+    /** Return the number of probes that found their position. */
+    long hits() {
+        return _hits.sum();
+    }
+
+    /** Return the number of probes that did not find their position. */
+    long misses() {
+        return _misses.sum();
+    }
+
+    /** Return the number of stores that displaced a different position. */
+    long collisions() {
+        return _collisions.sum();
+    }
+
+    /** Return the index of the first entry of KEY's bucket. */
+    private int bucket(long key) {
+        return (int) (key & _mask) * BUCKET_SIZE;
+    }
+
+    /** Return DEPTH, SCORE, BOUND, and MOVE packed into one nonzero long. */
+    private static long pack(int depth, int score, int bound, Move move) {
+        long m = move == null ? 0 : move.index() + 1;
+        return VALID | (m << MOVE_SHIFT) | ((long) bound << BOUND_SHIFT)
+            | ((long) Math.min(depth, 0xff) << DEPTH_SHIFT)
+            | (score & 0xffffffffL);
+    }
+
+    /** Positions of the fields in packed data.  The score occupies the low
+     *  32 bits. */
+    private static final int DEPTH_SHIFT = 32, BOUND_SHIFT = 40,
+        MOVE_SHIFT = 42;
+    /** A bit set in all packed data, so that it is never 0. */
+    private static final long VALID = 1L << 63;
+
+    /** The position hashes of the entries, each XORed with the entry's
+     *  data. */
+    private final long[] _keys;
+    /** The packed results of the entries (0 for an empty entry). */
+    private final long[] _data;
+    /** Mask selecting a bucket number from a hash. */
+    private final long _mask;
+    /** Requested size in megabytes. */
+    private final int _megabytes;
+    /** Counters of probe hits, probe misses, and displacing stores. */
+    private final LongAdder _hits = new LongAdder(),
+        _misses = new LongAdder(), _collisions = new LongAdder();
+}
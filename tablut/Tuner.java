@@ -0,0 +1,397 @@
+package tablut;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import static java.lang.Math.*;
+import static tablut.Utils.*;
+
+/** Tunes the Weights of the AI's evaluation to game records (Texel's
+ *  method).  Every quiet position of every game (one that staticScore
+ *  evaluates with the Weights) is labeled with the game's result for
+ *  white: 1 for a win, 0 for a loss, and 1/2 for an abandoned game.  The
+ *  tuner minimizes the mean logistic loss of the predictions
+ *  1 / (1 + exp(-E)), where E is the evaluation of a position in logits.
+ *  The starting weights are first converted to logits by the scale that
+ *  best fits them, and the tuned weights are written in units of
+ *  1/RESOLUTION of a logit.  Positions are stored only as their
+ *  features, so that each step of the descent needs just one pass over a
+ *  few arrays of integers, which is split among threads.
+ *  @author Young Hoon Kang
+ */
+class Tuner {
+
+    /** Default number of descent steps. */
+    private static final int DEFAULT_ITERATIONS = 500;
+    /** Default step size, as a fraction of the Newton step. */
+    private static final double DEFAULT_RATE = 0.25;
+    /** The number of records parsed at once, and the number of records or
+     *  positions below which work is not split further. */
+    private static final int BATCH = 4096, RECORD_CHUNK = 64,
+        POSITION_CHUNK = 1 << 14;
+    /** The number of units of tuned weights in a logit (the log of the
+     *  odds of a white win). */
+    static final int RESOLUTION = 100;
+    /** The columns of a game record (see SelfPlay.CSV_HEADER) holding the
+     *  winner and the moves. */
+    private static final int WINNER_COLUMN = 4, MOVES_COLUMN = 7;
+
+    /** Boards reused by the threads parsing records. */
+    private static final ThreadLocal<Board> BOARDS =
+        ThreadLocal.withInitial(Board::new);
+
+    /** The main program.  ARGS are options of the form --NAME=VALUE:
+     *  --input=FILE,... (required), files of game records as written by
+     *  SelfPlay or Match; --output=FILE for the tuned weights (default
+     *  the standard output); --initial=FILE, the weights to start from
+     *  (default Weights.DEFAULT); --iterations=N (default 500);
+     *  --rate=R (default 0.25); and --threads=N (default one per
+     *  processor).  Progress is reported on the standard error. */
+    public static void main(String... args) {
+        try {
+            Map<String, String> options = SelfPlay.options(args, "input",
+                "output", "initial", "iterations", "rate", "threads");
+            if (!options.containsKey("input")) {
+                throw error("--input is required");
+            }
+            Tuner tuner = new Tuner(SelfPlay.intOption(options, "threads",
+                Runtime.getRuntime().availableProcessors(), 1));
+            long start = System.nanoTime();
+            for (String name : options.get("input").split(",")) {
+                try (BufferedReader input =
+                     new BufferedReader(new FileReader(name))) {
+                    tuner.load(input);
+                }
+            }
+            System.err.printf("%d positions from %d games in %.1f s%n",
+                              tuner.size(), tuner.games(),
+                              (System.nanoTime() - start) * 1e-9);
+            Weights initial = !options.containsKey("initial")
+                ? Weights.DEFAULT
+                : Weights.read(new File(options.get("initial")));
+            Weights tuned =
+                tuner.tune(initial,
+                           SelfPlay.intOption(options, "iterations",
+                                              DEFAULT_ITERATIONS, 0),
+                           Match.doubleOption(options, "rate",
+                                              DEFAULT_RATE),
+                           System.err);
+            PrintStream out = !options.containsKey("output") ? System.out
+                : new PrintStream(new FileOutputStream(options.get("output")));
+            out.printf("# Tuned on %d positions from %d games.%n",
+                       tuner.size(), tuner.games());
+            tuned.write(out);
+            out.close();
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.println(excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A tuner that uses THREADS threads. */
+    Tuner(int threads) {
+        _pool = new ForkJoinPool(threads);
+    }
+
+    /** Return the number of positions loaded. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the number of games loaded. */
+    int games() {
+        return _games;
+    }
+
+    /** Add the quiet positions of the game records read from INPUT, one
+     *  per line in the format of SelfPlay.CSV_HEADER.  Header lines and
+     *  blank lines are skipped. */
+    void load(BufferedReader input) throws IOException {
+        String[] batch = new String[BATCH];
+        for (boolean more = true; more; ) {
+            int n = 0;
+            String line;
+            while (n < BATCH && (line = input.readLine()) != null) {
+                if (!line.trim().isEmpty()
+                    && !line.startsWith(SelfPlay.CSV_HEADER)) {
+                    batch[n] = line;
+                    n += 1;
+                }
+            }
+            more = n == BATCH;
+            int[][] features = new int[n][];
+            byte[][] labels = new byte[n][];
+            _pool.invoke(new Parse(batch, features, labels, 0, n));
+            for (int i = 0; i < n; i += 1) {
+                append(features[i], labels[i]);
+            }
+            _games += n;
+        }
+    }
+
+    /** Return the Weights found by ITERATIONS steps of descent from
+     *  INITIAL, each RATE times the step that would be optimal if the loss
+     *  were as curved as it can be, writing progress to LOG.  The result
+     *  is in units of 1/RESOLUTION of a logit. */
+    Weights tune(Weights initial, int iterations, double rate,
+                 PrintStream log) {
+        if (_size == 0) {
+            throw error("no positions to tune on");
+        }
+        double[] weights = new double[Weights.NUM_FEATURES];
+        for (int k = 0; k < weights.length; k += 1) {
+            weights[k] = initial.get(k);
+        }
+        double scale = fitScale(weights);
+        for (int k = 0; k < weights.length; k += 1) {
+            weights[k] *= scale;
+        }
+        double[] curvature = new double[Weights.NUM_FEATURES];
+        for (int i = 0; i < _size; i += 1) {
+            for (int k = 0; k < curvature.length; k += 1) {
+                double f = _features[i * Weights.NUM_FEATURES + k];
+                curvature[k] += f * f;
+            }
+        }
+        for (int k = 0; k < curvature.length; k += 1) {
+            curvature[k] = max(1e-9, curvature[k] / (4 * _size));
+        }
+        log.printf("scale %.5f  loss %.6f%n", scale, loss(weights, 1));
+        double[] gradient = new double[Weights.NUM_FEATURES];
+        for (int step = 1; step <= iterations; step += 1) {
+            double loss = loss(weights, 1, gradient);
+            for (int k = 0; k < weights.length; k += 1) {
+                weights[k] -= rate * gradient[k] / curvature[k];
+            }
+            if (step % 50 == 0 || step == iterations) {
+                log.printf("step %d  loss %.6f%n", step, loss);
+            }
+        }
+        int[] values = new int[weights.length];
+        for (int k = 0; k < values.length; k += 1) {
+            values[k] = (int) round(weights[k] * RESOLUTION);
+        }
+        return new Weights(values);
+    }
+
+    /** Return the scale K that minimizes the loss of WEIGHTS, found by
+     *  golden-section search on its logarithm. */
+    double fitScale(double[] weights) {
+        final double ratio = (sqrt(5) - 1) / 2;
+        double lo = log(1e-5), hi = log(10);
+        while (hi - lo > 1e-4) {
+            double a = hi - ratio * (hi - lo), b = lo + ratio * (hi - lo);
+            if (loss(weights, exp(a)) < loss(weights, exp(b))) {
+                hi = b;
+            } else {
+                lo = a;
+            }
+        }
+        return exp((lo + hi) / 2);
+    }
+
+    /** Return the mean loss of WEIGHTS with scale SCALE. */
+    double loss(double[] weights, double scale) {
+        return loss(weights, scale, new double[weights.length]);
+    }
+
+    /** Return the mean loss of WEIGHTS with scale SCALE, storing its
+     *  gradient with respect to WEIGHTS in GRADIENT. */
+    double loss(double[] weights, double scale, double[] gradient) {
+        double[] sums =
+            _pool.invoke(new Gradient(weights, scale, 0, _size));
+        for (int k = 0; k < gradient.length; k += 1) {
+            gradient[k] = sums[k + 1] / _size;
+        }
+        return sums[0] / _size;
+    }
+
+    /** Add the positions with features FEATURES (NUM_FEATURES per
+     *  position) and labels LABELS (twice white's score). */
+    private void append(int[] features, byte[] labels) {
+        int n = labels.length;
+        if (_size + n > _labels.length) {
+            int capacity = max(_size + n, 2 * _labels.length);
+            _labels = Arrays.copyOf(_labels, capacity);
+            _features =
+                Arrays.copyOf(_features, capacity * Weights.NUM_FEATURES);
+        }
+        System.arraycopy(labels, 0, _labels, _size, n);
+        System.arraycopy(features, 0, _features,
+                         _size * Weights.NUM_FEATURES, features.length);
+        _size += n;
+    }
+
+    /** Return true iff staticScore evaluates BOARD with its Weights: if
+     *  the game is not over, the king is not on or next to an edge, and
+     *  the position is not a repetition. */
+    static boolean isQuiet(Board board) {
+        Square king = board.kingPosition();
+        return board.winner() == null
+            && king.col() > 1 && king.col() < Board.SIZE - 2
+            && king.row() > 1 && king.row() < Board.SIZE - 2
+            && !board.repeatedPosition();
+    }
+
+    /** Parses a range of game records. */
+    private static class Parse extends RecursiveAction {
+
+        /** A task storing the features and labels of the quiet positions
+         *  of RECORDS[LO .. HI-1] in FEATURES and LABELS at the same
+         *  indices. */
+        Parse(String[] records, int[][] features, byte[][] labels,
+              int lo, int hi) {
+            _records = records;
+            _features = features;
+            _labels = labels;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (_hi - _lo > RECORD_CHUNK) {
+                int mid = (_lo + _hi) >>> 1;
+                invokeAll(new Parse(_records, _features, _labels, _lo, mid),
+                          new Parse(_records, _features, _labels, mid, _hi));
+                return;
+            }
+            Board board = BOARDS.get();
+            int[] features = new int[0];
+            for (int i = _lo; i < _hi; i += 1) {
+                String[] fields = _records[i].split(",", -1);
+                if (fields.length <= MOVES_COLUMN) {
+                    throw error("bad game record: %s", _records[i]);
+                }
+                byte label = label(fields[WINNER_COLUMN]);
+                String[] moves = fields[MOVES_COLUMN].trim().isEmpty()
+                    ? new String[0] : fields[MOVES_COLUMN].trim().split(" ");
+                if (features.length < (moves.length + 1)
+                    * Weights.NUM_FEATURES) {
+                    features =
+                        new int[(moves.length + 1) * Weights.NUM_FEATURES];
+                }
+                board.init();
+                int n = 0;
+                for (int m = 0; ; m += 1) {
+                    if (isQuiet(board)) {
+                        Weights.features(board, features,
+                                         n * Weights.NUM_FEATURES);
+                        n += 1;
+                    }
+                    if (m == moves.length || board.winner() != null) {
+                        break;
+                    }
+                    Move move = Move.isGrammaticalMove(moves[m])
+                        ? Move.mv(moves[m]) : null;
+                    if (move == null || !board.isLegal(move)) {
+                        throw error("illegal move in game record: %s",
+                                    moves[m]);
+                    }
+                    board.makeMove(move);
+                }
+                _features[i] =
+                    Arrays.copyOf(features, n * Weights.NUM_FEATURES);
+                _labels[i] = new byte[n];
+                Arrays.fill(_labels[i], label);
+            }
+        }
+
+        /** Return twice white's score in a game won by WINNER ("White",
+         *  "Black", or "none", as written by SelfPlay.Result). */
+        private static byte label(String winner) {
+            switch (winner.toLowerCase()) {
+            case "white":
+                return 2;
+            case "black":
+                return 0;
+            case "none":
+                return 1;
+            default:
+                throw error("bad winner in game record: %s", winner);
+            }
+        }
+
+        /** The records to parse. */
+        private final String[] _records;
+        /** The features and labels of the positions of each record. */
+        private final int[][] _features;
+        /** The labels of the positions of each record. */
+        private final byte[][] _labels;
+        /** The range of records to parse. */
+        private final int _lo, _hi;
+    }
+
+    /** Sums the losses and gradients of a range of positions. */
+    private class Gradient extends RecursiveTask<double[]> {
+
+        /** A task summing the losses of positions LO .. HI-1 with weights
+         *  WEIGHTS and scale SCALE, and their gradients. */
+        Gradient(double[] weights, double scale, int lo, int hi) {
+            _weights = weights;
+            _scale = scale;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        /** Return the total loss followed by the total gradient. */
+        @Override
+        protected double[] compute() {
+            if (_hi - _lo > POSITION_CHUNK) {
+                int mid = (_lo + _hi) >>> 1;
+                Gradient left = new Gradient(_weights, _scale, _lo, mid);
+                left.fork();
+                double[] sums =
+                    new Gradient(_weights, _scale, mid, _hi).compute();
+                double[] other = left.join();
+                for (int k = 0; k < sums.length; k += 1) {
+                    sums[k] += other[k];
+                }
+                return sums;
+            }
+            final int nf = Weights.NUM_FEATURES;
+            double[] sums = new double[nf + 1];
+            for (int i = _lo; i < _hi; i += 1) {
+                double eval = 0;
+                for (int k = 0; k < nf; k += 1) {
+                    eval += _weights[k] * _features[i * nf + k];
+                }
+                double p = 1 / (1 + exp(-_scale * eval));
+                double y = _labels[i] * 0.5;
+                p = min(max(p, 1e-12), 1 - 1e-12);
+                sums[0] -= y * log(p) + (1 - y) * log(1 - p);
+                double d = (p - y) * _scale;
+                for (int k = 0; k < nf; k += 1) {
+                    sums[k + 1] += d * _features[i * nf + k];
+                }
+            }
+            return sums;
+        }
+
+        /** The weights being evaluated. */
+        private final double[] _weights;
+        /** The scale of the evaluation. */
+        private final double _scale;
+        /** The range of positions summed. */
+        private final int _lo, _hi;
+    }
+
+    /** The pool that parses records and sums gradients. */
+    private final ForkJoinPool _pool;
+    /** The features of the positions loaded, NUM_FEATURES per
+     *  position. */
+    private int[] _features = new int[0];
+    /** The labels of the positions loaded: twice white's score. */
+    private byte[] _labels = new byte[0];
+    /** The numbers of positions and games loaded. */
+    private int _size, _games;
+}
@@ -1,5 +1,20 @@
 package tablut;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 import ucb.junit.textui;
@@ -32,6 +47,80 @@ public class UnitTest {
         assertEquals("EMPTY", board.get(3, 2).name());
     }
 
+    /** Return a board set up as by toggle commands, with black to move,
+     *  the king on KING, and black and white pieces on the squares named
+     *  in BLACKS and WHITES. */
+    private static Board position(String king, String blacks,
+                                  String whites) {
+        Board board = new Board();
+        for (Square s : Square.SQUARE_LIST) {
+            board.put(Piece.EMPTY, s);
+        }
+        board.put(Piece.KING, Square.sq(king));
+        for (String s : blacks.split(" ")) {
+            board.put(Piece.BLACK, Square.sq(s));
+        }
+        for (String s : whites.split(" ")) {
+            if (!s.isEmpty()) {
+                board.put(Piece.WHITE, Square.sq(s));
+            }
+        }
+        board.clearUndo();
+        return board;
+    }
+
+    @Test
+    public void captureRulesTest() {
+        Board board = position("h2", "a7 e7 c2", "b7 d7 h8");
+        board.makeMove(Move.mv("c2-7"));
+        assertEquals(Piece.EMPTY, board.get(Square.sq("b7")));
+        assertEquals(Piece.EMPTY, board.get(Square.sq("d7")));
+        board.undo();
+        assertEquals(Piece.WHITE, board.get(Square.sq("b7")));
+        assertEquals(Piece.WHITE, board.get(Square.sq("d7")));
+        assertEquals(Piece.BLACK, board.get(Square.sq("c2")));
+
+        board = position("h2", "c1", "b8 d8");
+        board.makeMove(Move.mv("c1-8"));
+        assertEquals(Piece.BLACK, board.get(Square.sq("c8")));
+
+        board = position("h2", "e6 a1", "e9");
+        board.makeMove(Move.mv("a1-2"));
+        board.makeMove(Move.mv("e9-7"));
+        assertEquals(Piece.EMPTY, board.get(Square.sq("e6")));
+
+        board = position("e5", "d5 f5 e4 e8", "e6");
+        board.makeMove(Move.mv("e8-7"));
+        assertEquals(Piece.EMPTY, board.get(Square.sq("e6")));
+        assertNull(board.winner());
+    }
+
+    @Test
+    public void kingCaptureRulesTest() {
+        Board board = position("c3", "b3 d8", "");
+        board.makeMove(Move.mv("d8-3"));
+        assertNull(board.kingPosition());
+        assertEquals(Piece.BLACK, board.winner());
+
+        board = position("e6", "d6 f6 e8", "");
+        board.makeMove(Move.mv("e8-7"));
+        assertNull(board.kingPosition());
+        assertEquals(Piece.BLACK, board.winner());
+
+        board = position("e5", "d5 f5 e8", "a9");
+        board.makeMove(Move.mv("e8-6"));
+        assertEquals(Square.sq("e5"), board.kingPosition());
+        assertNull(board.winner());
+
+        board = position("e5", "d5 f5 e4 e8", "a9");
+        board.makeMove(Move.mv("e8-6"));
+        assertNull(board.kingPosition());
+        assertEquals(Piece.BLACK, board.winner());
+        board.undo();
+        assertEquals(Square.sq("e5"), board.kingPosition());
+        assertNull(board.winner());
+    }
+
     @Test
     public void isUnblockedTest() {
         Board board = new Board();
@@ -73,18 +162,22 @@ public class UnitTest {
         Square z = Square.sq(5, 1);
         Square x = Square.sq(2, 4);
         Square y = Square.sq(2, 6);
+        String initial = board.toString();
         board.makeMove(a, b);
         System.out.print(board);
         board.undo();
         System.out.print(board);
-        board.makeMove(x, y);
-        System.out.print(board);
+        assertEquals(initial, board.toString());
+        assertEquals(Piece.BLACK, board.turn());
         board.makeMove(a, z);
         System.out.print(board);
+        board.makeMove(x, y);
+        System.out.print(board);
         board.undo();
         System.out.print(board);
         board.undo();
         System.out.print(board);
+        assertEquals(initial, board.toString());
     }
     @Test
     public void kingTest() {
@@ -284,6 +377,805 @@ public class UnitTest {
         board.makeMove(i, j);
         System.out.println(board);
     }
-}
 
+    @Test
+    public void hashKeyTest() {
+        Board board = new Board();
+        long initial = board.hashKey();
+        board.makeMove(Square.sq("a4"), Square.sq("a3"));
+        assertNotEquals(initial, board.hashKey());
+        board.makeMove(Square.sq("e3"), Square.sq("f3"));
+        board.makeMove(Square.sq("a3"), Square.sq("a4"));
+        board.makeMove(Square.sq("f3"), Square.sq("e3"));
+        assertEquals(initial, board.hashKey());
+        assertTrue(board.repeatedPosition());
+        assertEquals(Piece.BLACK, board.winner());
+        board.undo();
+        assertFalse(board.repeatedPosition());
+        assertNull(board.winner());
+        board.undo();
+        board.undo();
+        board.undo();
+        assertEquals(initial, board.hashKey());
+        Board copy = new Board(board);
+        assertEquals(board.hashKey(), copy.hashKey());
+    }
+
+    @Test
+    public void makeUndoRandomTest() {
+        Random random = new Random(61);
+        for (int game = 0; game < 20; game += 1) {
+            Board board = new Board();
+            List<String> positions = new ArrayList<>();
+            List<Long> keys = new ArrayList<>();
+            while (board.winner() == null && positions.size() < 300) {
+                positions.add(board.toString() + board.turn());
+                keys.add(board.hashKey());
+                List<Move> moves = board.legalMoves(board.turn());
+                board.makeMove(moves.get(random.nextInt(moves.size())));
+            }
+            for (int k = positions.size() - 1; k >= 0; k -= 1) {
+                board.undo();
+                assertNull(board.winner());
+                assertEquals(positions.get(k), board.toString() + board.turn());
+                assertEquals((long) keys.get(k), board.hashKey());
+            }
+        }
+    }
+
+    @Test
+    public void isCaptureTest() {
+        Random random = new Random(8);
+        for (int game = 0; game < 10; game += 1) {
+            Board board = new Board();
+            assertNull(board.lastMove());
+            while (board.winner() == null && board.moveCount() < 200) {
+                String before = board.toString();
+                int pieces = board.pieceLocations(Piece.BLACK).size()
+                    + board.pieceLocations(Piece.WHITE).size();
+                for (Move move : board.legalMoves(board.turn())) {
+                    boolean capture = board.isCapture(move);
+                    assertEquals(before, board.toString());
+                    board.makeMove(move);
+                    int after = board.pieceLocations(Piece.BLACK).size()
+                        + board.pieceLocations(Piece.WHITE).size();
+                    assertEquals(move.toString(), pieces != after, capture);
+                    assertEquals(move, board.lastMove());
+                    board.undo();
+                }
+                List<Move> moves = board.legalMoves(board.turn());
+                board.makeMove(moves.get(random.nextInt(moves.size())));
+            }
+        }
+    }
+
+    /** Check the incrementally maintained counts of BOARD against ones
+     *  computed from scratch. */
+    private void checkEvalTerms(Board board) {
+        for (Piece side : new Piece[] { Piece.BLACK, Piece.WHITE }) {
+            assertEquals(board.legalMoves(side).size(), board.mobility(side));
+            assertEquals(board.pieceLocations(side).size(),
+                         board.material(side));
+            for (Square s : Square.SQUARE_LIST) {
+                assertEquals(board.get(s).side() == side,
+                             board.pieceLocations(side).contains(s));
+            }
+        }
+        int attackers = 0;
+        Square king = board.kingPosition();
+        for (Square s : board.pieceLocations(Piece.BLACK)) {
+            if (king != null && s != king
+                && Math.abs(s.col() - king.col()) <= 1
+                && Math.abs(s.row() - king.row()) <= 1) {
+                attackers += 1;
+            }
+        }
+        assertEquals(attackers, board.kingAttackers());
+    }
+
+    @Test
+    public void evalTermsTest() {
+        Random random = new Random(9);
+        for (int game = 0; game < 20; game += 1) {
+            Board board = new Board();
+            checkEvalTerms(board);
+            while (board.winner() == null && board.moveCount() < 300) {
+                List<Move> moves = board.legalMoves(board.turn());
+                board.makeMove(moves.get(random.nextInt(moves.size())));
+                checkEvalTerms(board);
+                checkEvalTerms(new Board(board));
+            }
+            while (board.moveCount() > 0) {
+                board.undo();
+                checkEvalTerms(board);
+            }
+        }
+        Board board = new Board();
+        board.put(Piece.EMPTY, Board.THRONE);
+        board.put(Piece.KING, Square.sq("e3"));
+        board.put(Piece.BLACK, Square.sq("d2"));
+        checkEvalTerms(board);
+    }
+
+    @Test
+    public void isLegalTest() {
+        Random random = new Random(10);
+        Board board = new Board();
+        while (board.winner() == null && board.moveCount() < 100) {
+            List<Move> moves = board.legalMoves(board.turn());
+            for (Square from : Square.SQUARE_LIST) {
+                for (Square to : Square.SQUARE_LIST) {
+                    Move move = Move.mv(from, to);
+                    assertEquals(move != null && moves.contains(move),
+                                 board.isLegal(from, to));
+                }
+            }
+            board.makeMove(moves.get(random.nextInt(moves.size())));
+        }
+    }
+
+    @Test
+    public void intMovesTest() {
+        Random random = new Random(12);
+        int[] codes = new int[Board.MAX_MOVES + 1];
+        Board board = new Board();
+        while (board.winner() == null && board.moveCount() < 200) {
+            List<Move> moves = board.legalMoves(board.turn());
+            codes[0] = -1;
+            int end = board.legalMoves(board.turn(), codes, 1);
+            assertEquals(-1, codes[0]);
+            assertEquals(moves.size(), end - 1);
+            for (int k = 1; k < end; k += 1) {
+                Move move = Move.decode(codes[k]);
+                assertTrue(moves.contains(move));
+                assertEquals(board.isCapture(move),
+                             (codes[k] & Move.CAPTURE) != 0);
+                assertEquals(move.code(), codes[k] & ~Move.CAPTURE);
+            }
+            int code = codes[1 + random.nextInt(end - 1)];
+            Board copy = new Board(board);
+            board.makeMove(code);
+            copy.makeMove(Move.decode(code));
+            assertEquals(copy.toString(), board.toString());
+        }
+    }
 
+    @Test
+    public void captureMovesTest() {
+        Random random = new Random(13);
+        int[] all = new int[Board.MAX_MOVES], captures =
+            new int[Board.MAX_MOVES];
+        for (int game = 0; game < 10; game += 1) {
+            Board board = new Board();
+            while (board.winner() == null && board.moveCount() < 200) {
+                for (Piece side : new Piece[] { Piece.BLACK, Piece.WHITE }) {
+                    Set<Integer> expected = new HashSet<>();
+                    int n = board.legalMoves(side, all, 0);
+                    for (int k = 0; k < n; k += 1) {
+                        Move move = Move.decode(all[k]);
+                        Square to = move.to();
+                        if ((all[k] & Move.CAPTURE) != 0
+                            || move.from() == board.kingPosition()
+                               && (to.col() <= 1 || to.col() >= 7
+                                   || to.row() <= 1 || to.row() >= 7)) {
+                            expected.add(all[k]);
+                        }
+                    }
+                    Set<Integer> found = new HashSet<>();
+                    int m = board.captureMoves(side, captures, 0);
+                    for (int k = 0; k < m; k += 1) {
+                        found.add(captures[k]);
+                    }
+                    assertEquals(m, found.size());
+                    assertEquals(expected, found);
+                }
+                List<Move> moves = board.legalMoves(board.turn());
+                board.makeMove(moves.get(random.nextInt(moves.size())));
+            }
+        }
+    }
+
+    @Test
+    public void quiescenceTest() {
+        Random random = new Random(14);
+        AI ai = (AI) new AI().create(Piece.WHITE, null);
+        int[] captures = new int[Board.MAX_MOVES];
+        Board board = new Board();
+        while (board.winner() == null && board.moveCount() < 200) {
+            ai.startOrdering(board);
+            int sense = board.turn() == Piece.WHITE ? 1 : -1;
+            int stand = ai.staticScore(board);
+            int value = ai.quiesce(board, sense, -AI.INFTY, AI.INFTY);
+            assertTrue(value >= sense * stand);
+            if (board.captureMoves(board.turn(), captures, 0) == 0) {
+                assertEquals(sense * stand, value);
+            }
+            List<Move> moves = board.legalMoves(board.turn());
+            board.makeMove(moves.get(random.nextInt(moves.size())));
+        }
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new TextPlayer(), new AI(), false);
+        controller.setMoveTime(100);
+        AI template = new AI();
+        template.setOption("quiescence", "off");
+        Player player = template.create(Piece.BLACK, controller);
+        assertTrue(controller.board().isLegal(Move.mv(player.myMove())));
+    }
+
+    @Test
+    public void nullMoveTest() {
+        Board board = new Board();
+        board.makeMove(Move.mv("a4-b"));
+        long key = board.hashKey();
+        String before = board.toString();
+        board.makeNullMove();
+        assertEquals(Piece.BLACK, board.turn());
+        assertEquals(2, board.moveCount());
+        assertNotEquals(key, board.hashKey());
+        board.makeMove(Move.mv("a6-b"));
+        board.undo();
+        board.undoNullMove();
+        assertEquals(key, board.hashKey());
+        assertEquals(before, board.toString());
+        assertEquals(Move.mv("a4-b"), board.lastMove());
+    }
+
+    /** Return the minimax value of BOARD searched DEPTH plies by AI with
+     *  no pruning. */
+    private int minimax(AI ai, Board board, int depth) {
+        if (depth == 0 || board.winner() != null) {
+            return ai.staticScore(board);
+        }
+        boolean white = board.turn() == Piece.WHITE;
+        int best = white ? -AI.INFTY : AI.INFTY;
+        for (Move move : board.legalMoves(board.turn())) {
+            board.makeMove(move);
+            int eval = minimax(ai, board, depth - 1);
+            board.undo();
+            best = white ? Math.max(best, eval) : Math.min(best, eval);
+        }
+        return best;
+    }
+
+    @Test
+    public void selectiveSearchTest() {
+        Random random = new Random(15);
+        AI plain = new AI(), selective = new AI();
+        for (String option : new String[] { "quiescence", "nullmove", "lmr",
+                                            "research", "pvs",
+                                            "aspiration" }) {
+            plain.setOption(option, "off");
+        }
+        AI exact = (AI) plain.create(Piece.WHITE, null),
+            fast = (AI) selective.create(Piece.WHITE, null);
+        plain.setOption("pvs", "on");
+        plain.setOption("aspiration", "on");
+        AI scout = (AI) plain.create(Piece.WHITE, null);
+        Board board = new Board();
+        while (board.winner() == null && board.moveCount() < 40) {
+            int sense = board.turn() == Piece.WHITE ? 1 : -1;
+            exact._table = new TranspositionTable(1);
+            exact.startOrdering(board);
+            assertEquals(minimax(exact, board, 2),
+                         exact.findMove(board, 2, true, sense, -AI.INFTY,
+                                        AI.INFTY));
+            if (board.moveCount() % 8 == 0) {
+                exact._table = new TranspositionTable(1);
+                int value = exact.findMove(board, 3, true, sense,
+                                           -AI.INFTY, AI.INFTY);
+                for (int guess : new int[] { value, value - 100,
+                                             value + 100 }) {
+                    scout._table = new TranspositionTable(1);
+                    scout.startOrdering(board);
+                    assertEquals(value,
+                                 scout.aspirationSearch(board, 3, sense,
+                                                        guess));
+                    assertTrue(board.isLegal(scout._lastFoundMove));
+                }
+            }
+            fast._table = new TranspositionTable(1);
+            fast.startOrdering(board);
+            String before = board.toString();
+            fast.findMove(board, 4, true, sense, -AI.INFTY, AI.INFTY);
+            assertEquals(before, board.toString());
+            assertTrue(board.isLegal(fast._lastFoundMove));
+            List<Move> moves = board.legalMoves(board.turn());
+            board.makeMove(moves.get(random.nextInt(moves.size())));
+        }
+        try {
+            selective.setOption("lmr", "maybe");
+            fail("bad switch value accepted");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void fullWindowScoutTest() {
+        int[] scouts = new int[1];
+        AI ai = new AI(Piece.BLACK, null) {
+            @Override
+            int negamax(Board board, int depth, boolean saveMove, int sense,
+                        int alpha, int beta) {
+                if (board.moveCount() - _rootMoveCount == 1
+                    && (long) beta - alpha == 1) {
+                    scouts[0] += 1;
+                }
+                return super.negamax(board, depth, saveMove, sense, alpha,
+                                     beta);
+            }
+        };
+        for (String option : new String[] { "quiescence", "nullmove", "lmr",
+                                            "research", "aspiration" }) {
+            ai.setOption(option, "off");
+        }
+        Board board =
+            position("e5", "a1 i9", "c3 c5 c7 e3 e7 g3 g5 g7");
+        ai._table = new TranspositionTable(1);
+        ai.startOrdering(board);
+        int value =
+            ai.findMove(board, 2, true, -1, -AI.INFTY, AI.INFTY);
+        assertTrue(value > 0);
+        assertEquals(board.legalMoves(Piece.BLACK).size() - 1, scouts[0]);
+    }
+
+    @Test
+    public void perftTest() {
+        Board board = new Board();
+        long[] initial = { 1, 80, 4400, 353200 };
+        for (int depth = 0; depth < initial.length; depth += 1) {
+            assertEquals(initial[depth], Perft.count(board, depth));
+        }
+        String start = board.toString();
+        List<Move> moves = new ArrayList<>();
+        long[] divided = Perft.divide(board, 3, 2, moves);
+        assertEquals(80, moves.size());
+        assertEquals(initial[3], Arrays.stream(divided).sum());
+        assertEquals(start, board.toString());
+
+        Board endgame = position("e5", "d1 f9 a6 e6", "e3");
+        long[] endgameCounts = { 1, 53, 1075, 55180, 1420450 };
+        for (int depth = 0; depth < endgameCounts.length; depth += 1) {
+            assertEquals(endgameCounts[depth], Perft.count(endgame, depth));
+        }
+        Board opened = new Board();
+        opened.put(Piece.EMPTY, Square.sq("e4"));
+        opened.put(Piece.EMPTY, Square.sq("d5"));
+        opened.put(Piece.BLACK, Square.sq("c5"));
+        opened.put(Piece.EMPTY, Square.sq("e5"));
+        opened.put(Piece.KING, Square.sq("e4"));
+        opened.put(Piece.WHITE, Square.sq("g7"));
+        opened.clearUndo();
+        long[] openedCounts = { 1, 97, 4193, 400099 };
+        for (int depth = 0; depth < openedCounts.length; depth += 1) {
+            assertEquals(openedCounts[depth], Perft.count(opened, depth));
+        }
+    }
+
+    @Test
+    public void searchInfoTest() {
+        SearchInfo info = new SearchInfo(Piece.WHITE, Move.mv("e3-f"), 4,
+                                         10000, 8000, 400, 300, 250);
+        assertEquals(0.75, info.firstMoveCutoffRate(), 1e-9);
+        assertEquals(10.0, info.branchingFactor(), 1e-9);
+        assertEquals(40000, info.nodesPerSecond());
+        assertEquals("White,e3-f,4,10000,8000,400,300,0.7500,10.000,250,40000",
+                     info.toCSV());
+        assertEquals(SearchInfo.CSV_HEADER.split(",").length,
+                     info.toCSV().split(",").length);
+    }
+
+    @Test
+    public void transpositionTableTest() {
+        TranspositionTable table = new TranspositionTable(1);
+        Move move = Move.mv("e3-f");
+        assertEquals(0, table.probe(12345L));
+        table.store(12345L, 4, -17, TranspositionTable.LOWER, move);
+        long data = table.probe(12345L);
+        assertEquals(4, TranspositionTable.depth(data));
+        assertEquals(-17, TranspositionTable.score(data));
+        assertEquals(TranspositionTable.LOWER, TranspositionTable.bound(data));
+        assertSame(move, TranspositionTable.move(data));
+        assertEquals(1, table.hits());
+        assertEquals(1, table.misses());
+        for (int k = 0; k < Move.NUM_MOVES; k += 1) {
+            assertEquals(k, Move.mv(k).index());
+        }
+        int win = AI.TABLEBASE_WIN_VALUE - 5;
+        assertEquals(AI.TABLEBASE_WIN_VALUE - 2, AI.tableScore(win, 3));
+        assertEquals(AI.TABLEBASE_WIN_VALUE - 3,
+                     AI.searchScore(AI.tableScore(win, 3), 1));
+        assertEquals(-win, AI.searchScore(AI.tableScore(-win, 3), 3));
+        assertEquals(AI.WINNING_VALUE, AI.tableScore(AI.WINNING_VALUE, 3));
+        assertEquals(-17, AI.tableScore(-17, 3));
+    }
+
+    @Test
+    public void moveTimeTest() {
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), new AI(), false);
+        controller.setMoveTime(100);
+        Player ai = new AI().create(Piece.BLACK, controller);
+        long start = System.currentTimeMillis();
+        Move move = Move.mv(ai.myMove());
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertTrue(controller.board().isLegal(move));
+    }
+
+    @Test
+    public void ponderTest() throws InterruptedException {
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new TextPlayer(), new AI(), false);
+        controller.setMoveTime(1000);
+        AI template = new AI();
+        template.setOption("ponder", "on");
+        AI ai = (AI) template.create(Piece.WHITE, controller);
+        Board board = controller.board();
+        String before = board.toString();
+        long key = board.hashKey();
+        ai.startPondering(board);
+        Thread.sleep(200);
+        ai.stopPondering();
+        assertEquals(before, board.toString());
+        assertEquals(key, board.hashKey());
+        Move reply = TranspositionTable.move(ai.table().probe(key));
+        assertTrue(board.isLegal(reply));
+        ai.startPondering(board);
+        Thread.sleep(600);
+        ai.stopPondering();
+        assertEquals(key, board.hashKey());
+        board.makeMove(reply);
+        long start = System.currentTimeMillis();
+        Move move = ai.findMove(board);
+        assertTrue(System.currentTimeMillis() - start < 300);
+        assertTrue(board.isLegal(move));
+
+        board.undo();
+        reply = TranspositionTable.move(ai.table().probe(key));
+        ai.startPondering(board);
+        Thread.sleep(150);
+        ai.stopPondering();
+        board.makeMove(reply);
+        move = ai.findMove(board);
+        assertTrue(board.isLegal(move));
+    }
+
+    @Test
+    public void moveNowTest() throws InterruptedException {
+        List<SearchInfo> progress =
+            Collections.synchronizedList(new ArrayList<>());
+        Reporter reporter = new NullReporter() {
+            @Override
+            public void reportProgress(SearchInfo info) {
+                progress.add(info);
+            }
+        };
+        Controller controller =
+            new Controller(new NullView(), null, reporter,
+                           new TextPlayer(), new AI(), false);
+        controller.setMoveTime(60000);
+        AI ai = (AI) new AI().create(Piece.BLACK, controller);
+        Move[] result = new Move[1];
+        Thread search =
+            new Thread(() -> result[0] = ai.findMove(controller.board()));
+        long start = System.currentTimeMillis();
+        search.start();
+        Thread.sleep(500);
+        ai.moveNow();
+        search.join(5000);
+        assertFalse(search.isAlive());
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertTrue(controller.board().isLegal(result[0]));
+        assertFalse(progress.isEmpty());
+        for (int i = 0; i < progress.size(); i += 1) {
+            assertEquals(i + 1, progress.get(i).depth());
+        }
+        assertSame(progress.get(progress.size() - 1).move(), result[0]);
+    }
+
+    @Test
+    public void parallelAITest() {
+        Controller controller =
+            new Controller(new NullView(), null, new TextReporter(),
+                           new TextPlayer(), new AI(), false);
+        controller.setMoveTime(200);
+        AI template = new ParallelAI();
+        template.setOption("threads", "2");
+        Player ai = template.create(Piece.BLACK, controller);
+        Move move = Move.mv(ai.myMove());
+        assertTrue(controller.board().isLegal(move));
+    }
+
+    /** Return the live threads started by AIs for their helper searches
+     *  (Lazy SMP). */
+    private static Set<Thread> searchHelpers() {
+        Set<Thread> result = new HashSet<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive()
+                && thread.getName().equals("tablut-search-helper")) {
+                result.add(thread);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void releaseHelpersTest() throws InterruptedException {
+        Set<Thread> before = searchHelpers();
+        Controller controller =
+            new Controller(new NullView(), null, new NullReporter(),
+                           new TextPlayer(), new AI(), false);
+        controller.setMoveTime(50);
+        AI template = new AI();
+        template.setOption("threads", "3");
+        AI ai = (AI) template.create(Piece.BLACK, controller);
+        ai.findMove(controller.board());
+        Set<Thread> helpers = searchHelpers();
+        helpers.removeAll(before);
+        assertEquals(2, helpers.size());
+        ai.setOption("threads", "1");
+        ai.findMove(controller.board());
+        for (Thread helper : helpers) {
+            helper.join(5000);
+            assertFalse(helper.isAlive());
+        }
+        ai.setOption("threads", "3");
+        ai.findMove(controller.board());
+        helpers = searchHelpers();
+        helpers.removeAll(before);
+        assertEquals(2, helpers.size());
+        ai.release();
+        for (Thread helper : helpers) {
+            helper.join(5000);
+            assertFalse(helper.isAlive());
+        }
+    }
+
+    @Test
+    public void openingBookTest() throws IOException {
+        OpeningBook.Builder builder = new OpeningBook.Builder();
+        builder.addLine("a4-b e6-f ; 5");
+        builder.addLine("a4-b e6-d   # white replies differently");
+        builder.addLine("a4-b e6-d");
+        builder.addLine("a6-b");
+        assertEquals(4, builder.size());
+        File file = File.createTempFile("book", ".bin");
+        file.deleteOnExit();
+        builder.write(file);
+        assertEquals(OpeningBook.HEADER_SIZE + 4 * OpeningBook.RECORD_SIZE,
+                     file.length());
+
+        OpeningBook book = OpeningBook.open(file);
+        assertEquals(4, book.size());
+        Board board = new Board();
+        int k = book.find(board.hashKey());
+        assertEquals(Move.mv("a4-b").code(), book.move(k));
+        assertEquals(3, book.weight(k));
+        assertEquals(Move.mv("a6-b").code(), book.move(k + 1));
+        assertEquals(1, book.weight(k + 1));
+        assertEquals(Move.mv("a4-b"), book.choose(board, n -> 2));
+        assertEquals(Move.mv("a6-b"), book.choose(board, n -> 3));
+        board.makeMove(Move.mv("a4-b"));
+        k = book.find(board.hashKey());
+        assertEquals(Move.mv("e6-d").code(), book.move(k));
+        assertEquals(5, book.score(k + 1));
+        assertEquals(Move.mv("e6-f"), book.choose(board, n -> n - 1));
+        board.makeMove(Move.mv("e6-f"));
+        assertEquals(-1, book.find(board.hashKey()));
+        assertNull(book.choose(board, n -> 0));
+    }
+
+    @Test
+    public void tablebaseTest() throws IOException {
+        File file = File.createTempFile("tablebase", ".bin");
+        file.deleteOnExit();
+        Tablebase.generate(2, 2, file, null);
+        Tablebase tablebase = Tablebase.open(file);
+        assertEquals(2, tablebase.maxPieces());
+
+        Board board = new Board();
+        assertEquals(Tablebase.NOT_FOUND, tablebase.probe(board));
+        board.clear(Piece.BLACK);
+        board.put(Piece.KING, Square.sq("e5"));
+        board.put(Piece.BLACK, Square.sq("e2"));
+        int value = tablebase.probe(board);
+        assertFalse(Tablebase.isWin(value));
+        assertEquals(4, Tablebase.plies(value));
+
+        board.makeMove(Move.mv("e2-d"));
+        value = tablebase.probe(board);
+        assertTrue(Tablebase.isWin(value));
+        assertEquals(3, Tablebase.plies(value));
+        board.makeMove(Move.mv("e5-a"));
+        value = tablebase.probe(board);
+        assertFalse(Tablebase.isWin(value));
+        assertEquals(2, Tablebase.plies(value));
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = board.retroMoves(moves, 0);
+        boolean found = false;
+        for (int k = 0; k < n; k += 1) {
+            found |= moves[k] == Move.mv("e5-a").code();
+        }
+        assertTrue(found);
+    }
+
+    @Test
+    public void selfPlayTest() throws IOException {
+        Map<String, String> options =
+            SelfPlay.options(new String[] { "--threads=2", "--time=5",
+                                            "--max-plies=12" },
+                "threads", "time", "max-plies");
+        SelfPlay selfPlay = new SelfPlay(options);
+        List<SelfPlay.Result> seen =
+            Collections.synchronizedList(new ArrayList<>());
+        AI engine = new AI();
+        List<SelfPlay.Result> results =
+            selfPlay.play(3, 42, engine, engine, seen::add);
+        assertEquals(3, results.size());
+        assertEquals(3, seen.size());
+        for (int i = 0; i < 3; i += 1) {
+            SelfPlay.Result result = results.get(i);
+            assertEquals(i, result.game());
+            assertTrue(result.plies() <= 12);
+            String[] fields = result.toCSV().split(",");
+            assertEquals(SelfPlay.CSV_HEADER.split(",").length,
+                         fields.length);
+            assertEquals(Integer.toString(42 + i), fields[1]);
+            assertEquals(result.plies(), fields[7].split(" ").length);
+        }
+    }
+
+    @Test
+    public void sprtTest() {
+        Sprt sprt = new Sprt(0, 20, 0.05, 0.05);
+        assertEquals(Math.log(0.05 / 0.95), sprt.lowerBound(), 1e-9);
+        assertEquals(-sprt.lowerBound(), sprt.upperBound(), 1e-9);
+        assertEquals(0.5, Sprt.expectedScore(0), 1e-9);
+        for (int k = 0; k < 10; k += 1) {
+            sprt.add(1);
+        }
+        assertEquals(0, sprt.llr(), 1e-9);
+        while (sprt.status() == 0) {
+            sprt.add(1);
+            sprt.add(1);
+            sprt.add(0);
+            assertTrue(sprt.llr() > 0);
+        }
+        assertEquals(1, sprt.status());
+        assertTrue(sprt.elo() > 20);
+        Sprt even = new Sprt(0, 20, 0.05, 0.05);
+        while (even.status() == 0) {
+            even.add(1);
+            even.add(0.5);
+            even.add(0);
+        }
+        assertEquals(-1, even.status());
+        assertEquals(0, even.elo(), 1e-9);
+    }
+
+    @Test
+    public void matchTest() throws IOException {
+        Map<String, String> options =
+            SelfPlay.options(new String[] { "--time=5", "--max-plies=8" },
+                "time", "max-plies");
+        SelfPlay selfPlay = new SelfPlay(options);
+        AI a = SelfPlay.engine("smp,hash=1"), b = SelfPlay.engine("ybwc");
+        assertTrue(b instanceof ParallelAI);
+        Match match = new Match(a, b, 7);
+        Sprt sprt = new Sprt(0, 400, 0.2, 0.2);
+        List<SelfPlay.Result> results =
+            match.play(selfPlay, sprt, 4, r -> { });
+        assertTrue(results.size() >= sprt.games());
+        assertTrue(results.size() <= 4);
+        for (SelfPlay.Result result : results) {
+            Piece side = Match.sideOfA(result.game());
+            assertEquals("A", result.player(side));
+            assertEquals("B", result.player(side.opponent()));
+            assertTrue(result.toCSV().startsWith(result.game() + ","
+                                                 + (7 + result.game() / 2)
+                                                 + ","));
+        }
+        try {
+            SelfPlay.engine("smp,depth=3");
+            fail("unknown option accepted");
+        } catch (IllegalArgumentException excp) {
+            /* Expected. */
+        }
+    }
+
+    @Test
+    public void weightsTest() throws IOException {
+        Board board = new Board();
+        int[] features = new int[Weights.NUM_FEATURES];
+        Weights.features(board, features, 0);
+        assertEquals(9 - 5, features[Weights.KING_CORNER]);
+        assertEquals(0, features[Weights.KING_ATTACKERS]);
+        assertEquals(9 - 16, features[Weights.MATERIAL]);
+        Weights weights = new Weights(new int[] { 5, -2, 7, 11 });
+        for (String move : new String[] { "a4-b", "e6-f", "a6-b" }) {
+            int sum = 0;
+            Weights.features(board, features, 0);
+            for (int k = 0; k < Weights.NUM_FEATURES; k += 1) {
+                sum += weights.get(k) * features[k];
+            }
+            assertEquals(sum, weights.evaluate(board));
+            board.makeMove(Move.mv(move));
+        }
+        File file = File.createTempFile("tablut", ".weights");
+        file.deleteOnExit();
+        try (PrintStream out = new PrintStream(file)) {
+            weights.write(out);
+        }
+        assertEquals(weights, Weights.read(file));
+        try (PrintStream out = new PrintStream(file)) {
+            out.println("mobility 4  # only this one");
+        }
+        Weights read = Weights.read(file);
+        assertEquals(4, read.get(Weights.MOBILITY));
+        assertEquals(Weights.DEFAULT.get(Weights.KING_CORNER),
+                     read.get(Weights.KING_CORNER));
+        AI ai = new AI();
+        ai.setOption("weights", file.getPath());
+        AI player = (AI) ai.create(Piece.WHITE, null);
+        assertEquals(read.evaluate(board), player.staticScore(board));
+    }
+
+    @Test
+    public void parallelLoadTest() throws IOException {
+        Random random = new Random(20);
+        StringBuilder records = new StringBuilder();
+        records.append(SelfPlay.CSV_HEADER).append('\n');
+        for (int game = 0; game < 400; game += 1) {
+            Board board = new Board();
+            StringBuilder moves = new StringBuilder();
+            while (board.winner() == null && board.moveCount() < 80) {
+                List<Move> legal = board.legalMoves(board.turn());
+                Move move = legal.get(random.nextInt(legal.size()));
+                board.makeMove(move);
+                moves.append(moves.length() == 0 ? "" : " ").append(move);
+            }
+            records.append(String.format("%d,0,r,r,none,%d,0,%s,%n", game,
+                                         board.moveCount(), moves));
+        }
+        Tuner serial = new Tuner(1), parallel = new Tuner(4);
+        serial.load(new BufferedReader(new StringReader(records.toString())));
+        parallel.load(
+            new BufferedReader(new StringReader(records.toString())));
+        assertEquals(400, parallel.games());
+        assertEquals(serial.size(), parallel.size());
+    }
+
+    @Test
+    public void tunerTest() throws IOException {
+        SelfPlay selfPlay =
+            new SelfPlay(SelfPlay.options(new String[] {
+                "--time=5", "--max-plies=40" }, "time", "max-plies"));
+        StringBuilder records = new StringBuilder();
+        records.append(SelfPlay.CSV_HEADER).append('\n');
+        AI engine = new AI();
+        for (SelfPlay.Result result
+                 : selfPlay.play(6, 3, engine, engine, r -> { })) {
+            records.append(result.toCSV()).append('\n');
+        }
+        Tuner tuner = new Tuner(2);
+        tuner.load(new BufferedReader(new StringReader(records.toString())));
+        assertEquals(6, tuner.games());
+        assertTrue(tuner.size() > 6);
+        double[] start = new double[Weights.NUM_FEATURES];
+        double scale = tuner.fitScale(new double[] { 3, 2, 3, 0 });
+        for (int k = 0; k < start.length; k += 1) {
+            start[k] = Weights.DEFAULT.get(k) * scale;
+        }
+        Weights tuned = tuner.tune(Weights.DEFAULT, 100, 0.25,
+                                   new PrintStream(
+                                       new ByteArrayOutputStream()));
+        double[] end = new double[Weights.NUM_FEATURES];
+        for (int k = 0; k < end.length; k += 1) {
+            end[k] = tuned.get(k) / (double) Tuner.RESOLUTION;
+        }
+        assertTrue(tuner.loss(end, 1) <= tuner.loss(start, 1) + 1e-3);
+    }
+}
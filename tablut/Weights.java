@@ -0,0 +1,166 @@
+package tablut;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import static java.lang.Math.*;
+import static tablut.Piece.*;
+import static tablut.Utils.*;
+
+/** The weights of the terms of the AI's evaluation of quiet positions.
+ *  Each term is the product of a weight and a feature of the position,
+ *  measured in white's favor: the closeness of the king to the nearest
+ *  corner (KING_CORNER), the difference in the sides' mobility
+ *  (MOBILITY), the number of black pieces next to the king, negated
+ *  (KING_ATTACKERS), and the difference in the numbers of pieces
+ *  (MATERIAL).  The DEFAULT weights are those the evaluation has always
+ *  used; others can be read from a file of lines of the form NAME VALUE,
+ *  where NAME is an element of NAMES, such as Tuner writes.  Weights are
+ *  immutable.
+ *  @author Young Hoon Kang
+ */
+class Weights {
+
+    /** The indices of the features. */
+    static final int KING_CORNER = 0, MOBILITY = 1, KING_ATTACKERS = 2,
+        MATERIAL = 3;
+    /** The number of features. */
+    static final int NUM_FEATURES = 4;
+    /** The names of the features in weight files, by index. */
+    static final String[] NAMES = {
+        "king_corner", "mobility", "king_attackers", "material"
+    };
+    /** The weights used when no others are given. */
+    static final Weights DEFAULT = new Weights(new int[] { 3, 2, 3, 0 });
+
+    /** The number of pieces and of moves assumed by captureMargin. */
+    private static final int CAPTURE_PIECES = 2, CAPTURE_MOBILITY = 24;
+
+    /** CORNER_DISTANCE[i] is the distance from the square with index i to
+     *  the nearest corner, rounded down. */
+    private static final int[] CORNER_DISTANCE = new int[Square.NUM_SQUARES];
+
+    static {
+        for (Square s : Square.SQUARE_LIST) {
+            int nearest = Integer.MAX_VALUE;
+            for (int row = 0; row < Board.SIZE; row += Board.SIZE - 1) {
+                for (int col = 0; col < Board.SIZE; col += Board.SIZE - 1) {
+                    int dr = s.row() - row, dc = s.col() - col;
+                    nearest = min(nearest, (int) sqrt(dr * dr + dc * dc));
+                }
+            }
+            CORNER_DISTANCE[s.index()] = nearest;
+        }
+    }
+
+    /** The weights VALUES, indexed by feature. */
+    Weights(int[] values) {
+        if (values.length != NUM_FEATURES) {
+            throw error("wrong number of weights");
+        }
+        _values = values.clone();
+    }
+
+    /** Return the weights in FILE.  Features it does not mention keep
+     *  their DEFAULT weights.  Text after "#" is ignored. */
+    static Weights read(File file) throws IOException {
+        int[] values = DEFAULT._values.clone();
+        try (BufferedReader lines = new BufferedReader(new FileReader(file))) {
+            for (String line = lines.readLine(); line != null;
+                 line = lines.readLine()) {
+                String[] words = line.replaceFirst("#.*", "").trim()
+                    .split("\\s+");
+                if (words.length == 1 && words[0].isEmpty()) {
+                    continue;
+                }
+                int k = Arrays.asList(NAMES).indexOf(words[0]);
+                if (k < 0 || words.length != 2) {
+                    throw error("bad weight line: %s", line);
+                }
+                try {
+                    values[k] = Integer.parseInt(words[1]);
+                } catch (NumberFormatException excp) {
+                    throw error("bad weight: %s", words[1]);
+                }
+            }
+        }
+        return new Weights(values);
+    }
+
+    /** Write me to OUT in the format read by read. */
+    void write(PrintStream out) {
+        for (int k = 0; k < NUM_FEATURES; k += 1) {
+            out.printf("%s %d%n", NAMES[k], _values[k]);
+        }
+    }
+
+    /** Return a bound on how much one capture can be expected to improve
+     *  the evaluation for the capturing side, for use in pruning captures
+     *  that cannot matter: the material of CAPTURE_PIECES pieces, the
+     *  change in mobility when a piece and its lines are removed
+     *  (CAPTURE_MOBILITY moves), and one attacker of the king more or
+     *  less, plus one step of the king toward a corner. */
+    int captureMargin() {
+        return CAPTURE_PIECES * abs(_values[MATERIAL])
+            + CAPTURE_MOBILITY * abs(_values[MOBILITY])
+            + abs(_values[KING_ATTACKERS]) + abs(_values[KING_CORNER]);
+    }
+
+    /** Return the weight of feature K. */
+    int get(int k) {
+        return _values[k];
+    }
+
+    /** Store the features of BOARD in FEATURES[START .. START +
+     *  NUM_FEATURES - 1]. */
+    static void features(Board board, int[] features, int start) {
+        features[start + KING_CORNER] =
+            9 - CORNER_DISTANCE[board.kingPosition().index()];
+        features[start + MOBILITY] =
+            board.mobility(WHITE) - board.mobility(BLACK);
+        features[start + KING_ATTACKERS] = -board.kingAttackers();
+        features[start + MATERIAL] =
+            board.material(WHITE) - board.material(BLACK);
+    }
+
+    /** Return the weighted sum of the features of BOARD.  This is the
+     *  same as the sum of the products of my weights and the values
+     *  stored by features, but allocates nothing. */
+    int evaluate(Board board) {
+        return _values[KING_CORNER]
+            * (9 - CORNER_DISTANCE[board.kingPosition().index()])
+            + _values[MOBILITY]
+            * (board.mobility(WHITE) - board.mobility(BLACK))
+            - _values[KING_ATTACKERS] * board.kingAttackers()
+            + _values[MATERIAL]
+            * (board.material(WHITE) - board.material(BLACK));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof Weights
+            && Arrays.equals(_values, ((Weights) obj)._values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(_values);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < NUM_FEATURES; k += 1) {
+            result.append(k == 0 ? "" : " ").append(NAMES[k]).append('=')
+                .append(_values[k]);
+        }
+        return result.toString();
+    }
+
+    /** My weights, indexed by feature. */
+    private final int[] _values;
+}